@@ -0,0 +1,156 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent append-only store of primer alignments shared across runs. Entries are keyed by primer sequence and a
+ * fingerprint of the BLAST database and specificity settings; entries written under another fingerprint are ignored.
+ * Records are checksummed and appended under an exclusive file lock so several processes can share one file.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class AlignmentCache implements Closeable {
+
+    private static final Logger log = Logger.getLogger(AlignmentCache.class.getName());
+    private static final int MAGIC = 0x50414341, VERSION = 1;
+
+    private long fingerprint;
+    private int maxExactMatches;
+    private RecordLog recordLog;
+    private final HashMap<String, AlignmentResult> results = new HashMap<>();
+    private final HashMap<String, String> contigs = new HashMap<>();
+
+    public AlignmentCache(File cacheFile, File blastnRefPath, int maxExactMatches, double minSimilarity) throws IOException {
+        this.maxExactMatches = maxExactMatches;
+        this.fingerprint = getFingerprint(blastnRefPath, maxExactMatches, minSimilarity);
+        this.recordLog = new RecordLog(cacheFile, MAGIC, VERSION, false, new RecordLog.RecordReader() {
+            @Override
+            public void read(DataInputStream record) throws IOException {
+                readRecord(record);
+            }
+        });
+
+        log.log(Level.INFO, "Loaded " + results.size() + " cached primer alignment(s) from " + cacheFile);
+    }
+
+    public synchronized AlignmentResult get(String sequence) throws IOException {
+
+        //pick up entries appended by other processes
+        if (!results.containsKey(sequence) && recordLog.hasNewRecords()){
+            recordLog.readNewRecords();
+        }
+
+        return results.get(sequence);
+    }
+
+    public synchronized void put(final AlignmentResult result) throws IOException {
+
+        ArrayList<GenomicLocation> alignments;
+
+        try {
+            alignments = result.getAlignments();
+        } catch (MaxAlignmentExceededException e){
+            alignments = new ArrayList<>();
+        }
+
+        final ArrayList<GenomicLocation> recordAlignments = alignments;
+
+        recordLog.append(new RecordLog.RecordWriter() {
+            @Override
+            public boolean write(DataOutputStream record) throws IOException {
+
+                record.writeLong(fingerprint);
+                record.writeUTF(result.getSequence());
+                record.writeInt(result.getExactAlignments());
+                record.writeInt(recordAlignments.size());
+
+                for (GenomicLocation alignment : recordAlignments){
+                    record.writeUTF(alignment.getContig());
+                    record.writeInt(alignment.getStartPosition());
+                    record.writeInt(alignment.getEndPosition());
+                }
+
+                return true;
+            }
+        });
+
+        results.put(result.getSequence(), result);
+    }
+
+    private void readRecord(DataInputStream record) throws IOException {
+
+        if (record.readLong() != fingerprint){
+            return;
+        }
+
+        String sequence = record.readUTF();
+        int exactAlignments = record.readInt();
+        int numberOfAlignments = record.readInt();
+        ArrayList<GenomicLocation> alignments = new ArrayList<>(numberOfAlignments);
+
+        for (int n = 0; n < numberOfAlignments; ++n){
+            alignments.add(new GenomicLocation(getContig(record.readUTF()), record.readInt(), record.readInt()));
+        }
+
+        results.put(sequence, new AlignmentResult(sequence, alignments, exactAlignments, maxExactMatches));
+    }
+
+    private String getContig(String contig){
+        String existing = contigs.get(contig);
+        if (existing == null){
+            contigs.put(contig, contig);
+            return contig;
+        }
+        return existing;
+    }
+
+    /**
+     * Hash of the BLAST database volumes (name, size and modification time) and specificity settings
+     */
+    static long getFingerprint(File blastnRefPath, int maxExactMatches, double minSimilarity) {
+
+        File parent = blastnRefPath.getAbsoluteFile().getParentFile();
+        final String prefix = blastnRefPath.getName() + ".";
+        File[] volumes = parent.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+
+        StringBuilder description = new StringBuilder();
+        description.append(blastnRefPath.getAbsolutePath()).append("\t").append(maxExactMatches).append("\t").append(minSimilarity).append("\n");
+
+        if (volumes != null){
+            Arrays.sort(volumes);
+            for (File volume : volumes){
+                description.append(volume.getName()).append("\t").append(volume.length()).append("\t").append(volume.lastModified()).append("\n");
+            }
+        }
+
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-1").digest(description.toString().getBytes("UTF-8"))).getLong();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        recordLog.close();
+    }
+
+    public File getCacheFile() {
+        return recordLog.getFile();
+    }
+}
@@ -0,0 +1,47 @@
+package nhs.genetics.cardiff;
+
+import java.util.ArrayList;
+
+/**
+ * Genome alignments for a single primer sequence, or the reason it was rejected as non-specific
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class AlignmentResult {
+
+    private String sequence;
+    private ArrayList<GenomicLocation> alignments;
+    private int exactAlignments;
+    private boolean maxAlignmentExceeded;
+
+    public AlignmentResult(String sequence, ArrayList<GenomicLocation> alignments, int exactAlignments, int maxExactMatches){
+        this.sequence = sequence;
+        this.exactAlignments = exactAlignments;
+        this.maxAlignmentExceeded = exactAlignments > maxExactMatches;
+
+        //alignments are never used for rejected primers
+        this.alignments = maxAlignmentExceeded ? new ArrayList<GenomicLocation>() : alignments;
+    }
+
+    public ArrayList<GenomicLocation> getAlignments() throws MaxAlignmentExceededException {
+
+        //throw error if too many alignemtns are identified
+        if (maxAlignmentExceeded){
+            throw new MaxAlignmentExceededException("Sequence " + sequence + " has too many alignments (" + exactAlignments + ")");
+        }
+
+        return alignments;
+    }
+
+    public String getSequence() {
+        return sequence;
+    }
+    public int getExactAlignments() {
+        return exactAlignments;
+    }
+    public boolean isMaxAlignmentExceeded() {
+        return maxAlignmentExceeded;
+    }
+}
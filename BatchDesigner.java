@@ -0,0 +1,266 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Designs primers for many targets in one JVM using a bounded worker pool. Results are returned in input order.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class BatchDesigner {
+
+    private static final Logger log = Logger.getLogger(BatchDesigner.class.getName());
+
+    private Configuration configuration;
+    private PrimerDesigner primerDesigner;
+
+    public BatchDesigner(Configuration configuration, PrimerDesigner primerDesigner){
+        this.configuration = configuration;
+        this.primerDesigner = primerDesigner;
+    }
+
+    /**
+     * Reads targets from a BED (0-based) or tab/space separated (1-based) file of chrom, start and stop
+     */
+    public static ArrayList<GenomicLocation> readRegions(File regionsFile) throws IOException {
+
+        ArrayList<GenomicLocation> regions;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(regionsFile))){
+            regions = readRegions(reader, regionsFile.getName().toLowerCase().endsWith(".bed"));
+            reader.close();
+        }
+
+        return regions;
+    }
+
+    public static ArrayList<GenomicLocation> readRegions(BufferedReader reader, boolean isBed) throws IOException {
+
+        ArrayList<GenomicLocation> regions = new ArrayList<>();
+
+        try {
+            Iterator<GenomicLocation> iterator = iterateRegions(reader, isBed);
+            while (iterator.hasNext()){
+                regions.add(iterator.next());
+            }
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+
+        return regions;
+    }
+
+    /**
+     * Reads targets lazily; read errors are thrown as UncheckedIOException
+     */
+    public static Iterator<GenomicLocation> iterateRegions(final BufferedReader reader, final boolean isBed){
+        return new Iterator<GenomicLocation>() {
+
+            private GenomicLocation next;
+
+            @Override
+            public boolean hasNext() {
+
+                String line;
+
+                try {
+                    while (next == null && (line = reader.readLine()) != null) {
+
+                        //skip headers and blank lines
+                        if (line.trim().equals("") || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                            continue;
+                        }
+
+                        String[] fields = line.trim().split("\\s+");
+
+                        if (fields.length < 3){
+                            throw new IllegalArgumentException("Malformed region: " + line);
+                        }
+
+                        //convert bed records to 1-based
+                        next = new GenomicLocation(fields[0], Integer.parseInt(fields[1]) + (isBed ? 1 : 0), Integer.parseInt(fields[2]));
+                    }
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+
+                return next != null;
+            }
+
+            @Override
+            public GenomicLocation next() {
+
+                if (!hasNext()) throw new NoSuchElementException();
+
+                GenomicLocation region = next;
+                next = null;
+
+                return region;
+            }
+        };
+    }
+
+    public ArrayList<ArrayList<PrimerPair>> designPrimers(ArrayList<GenomicLocation> regions){
+        return designPrimers(regions, new ArrayList<DesignMetrics>());
+    }
+
+    /**
+     * @param metrics receives stage timings and counters for each target in input order
+     */
+    public ArrayList<ArrayList<PrimerPair>> designPrimers(ArrayList<GenomicLocation> regions, ArrayList<DesignMetrics> metrics){
+
+        ArrayList<Future<ArrayList<PrimerPair>>> futures = new ArrayList<>();
+        ArrayList<ArrayList<PrimerPair>> primerPairs = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(configuration.getThreads());
+
+        log.log(Level.INFO, "Designing primers for " + regions.size() + " target(s) using " + configuration.getThreads() + " thread(s)");
+
+        //queue targets
+        for (final GenomicLocation region : regions){
+
+            final DesignMetrics targetMetrics = new DesignMetrics();
+            metrics.add(targetMetrics);
+
+            futures.add(executorService.submit(new Callable<ArrayList<PrimerPair>>() {
+                @Override
+                public ArrayList<PrimerPair> call() {
+                    return primerDesigner.designPrimers(region, targetMetrics);
+                }
+            }));
+        }
+
+        executorService.shutdown();
+
+        //collect results in input order
+        for (int n = 0; n < futures.size(); ++n){
+            try {
+                primerPairs.add(futures.get(n).get());
+            } catch (ExecutionException e){
+                log.log(Level.SEVERE, "Could not design target " + regions.get(n).getContig() + ":" + regions.get(n).getStartPosition() + "-" + regions.get(n).getEndPosition() + ": " + e.getCause());
+                primerPairs.add(new ArrayList<PrimerPair>());
+            } catch (InterruptedException e){
+                log.log(Level.SEVERE, e.toString());
+                executorService.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return primerPairs;
+    }
+
+    /**
+     * Designs targets as they are read and writes each in input order once it and all earlier targets are done. Only a
+     * window of targets is in flight, so memory use does not grow with the batch.
+     *
+     * @return metrics summed over the batch
+     */
+    public DesignMetrics designPrimers(Iterator<GenomicLocation> regions, DesignWriter designWriter) throws IOException {
+
+        ArrayDeque<PendingTarget> pendingTargets = new ArrayDeque<>();
+        DesignMetrics summary = new DesignMetrics();
+        ExecutorService executorService = Executors.newFixedThreadPool(configuration.getThreads());
+        int window = 2 * configuration.getThreads(); //keeps workers busy while the oldest target is written
+
+        log.log(Level.INFO, "Streaming designs using " + configuration.getThreads() + " thread(s)");
+
+        try {
+
+            while (regions.hasNext() || !pendingTargets.isEmpty()){
+
+                //top up the window
+                while (pendingTargets.size() < window && regions.hasNext()){
+
+                    final PendingTarget pendingTarget = new PendingTarget(regions.next());
+
+                    pendingTarget.future = executorService.submit(new Callable<ArrayList<PrimerPair>>() {
+                        @Override
+                        public ArrayList<PrimerPair> call() {
+                            return primerDesigner.designPrimers(pendingTarget.region, pendingTarget.metrics);
+                        }
+                    });
+
+                    pendingTargets.add(pendingTarget);
+                }
+
+                //write oldest target
+                PendingTarget pendingTarget = pendingTargets.poll();
+                ArrayList<PrimerPair> primerPairs;
+
+                try {
+                    primerPairs = pendingTarget.future.get();
+                } catch (ExecutionException e){
+                    log.log(Level.SEVERE, "Could not design target " + pendingTarget.region.getContig() + ":" + pendingTarget.region.getStartPosition() + "-" + pendingTarget.region.getEndPosition() + ": " + e.getCause());
+                    primerPairs = new ArrayList<>();
+                }
+
+                designWriter.write(pendingTarget.region, primerPairs, pendingTarget.metrics);
+                summary.add(pendingTarget.metrics);
+            }
+
+        } catch (InterruptedException e){
+            log.log(Level.SEVERE, e.toString());
+            Thread.currentThread().interrupt();
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return summary;
+    }
+
+    private static class PendingTarget {
+        private final GenomicLocation region;
+        private final DesignMetrics metrics = new DesignMetrics();
+        private Future<ArrayList<PrimerPair>> future;
+
+        private PendingTarget(GenomicLocation region){
+            this.region = region;
+        }
+    }
+
+    /**
+     * @return metrics summed over the targets
+     */
+    public static DesignMetrics getSummary(ArrayList<DesignMetrics> metrics){
+
+        DesignMetrics summary = new DesignMetrics();
+
+        for (DesignMetrics targetMetrics : metrics){
+            summary.add(targetMetrics);
+        }
+
+        return summary;
+    }
+
+    /**
+     * Logs metrics summed over a finished command line batch and writes them to the metrics file if configured. The
+     * server adds each request to its /metrics totals instead.
+     */
+    public void writeSummary(DesignMetrics summary){
+
+        String json = summary.toJson();
+
+        log.log(Level.INFO, "Batch metrics: " + json);
+
+        if (configuration.getMetricsFile() != null){
+            try (PrintWriter writer = new PrintWriter(configuration.getMetricsFile())){
+                writer.println(json);
+            } catch (IOException e){
+                log.log(Level.WARNING, "Could not write metrics file: " + e.getMessage());
+            }
+        }
+
+    }
+
+}
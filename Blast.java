@@ -1,8 +1,7 @@
 package nhs.genetics.cardiff;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,69 +16,134 @@ import java.util.logging.Logger;
 public class Blast {
     private static final Logger log = Logger.getLogger(Blast.class.getName());
 
-    public static ArrayList<GenomicLocation> callShortQueryBlast(String query, File blastnFilePath, File blastnRefPath, int maxExactMatches, double minSimilarity) throws MaxAlignmentExceededException {
+    public static HashMap<String, AlignmentResult> callShortQueryBlast(Collection<String> queries, File blastnFilePath, File blastnRefPath, int maxExactMatches, double minSimilarity) {
+        return callShortQueryBlast(queries, blastnFilePath, blastnRefPath, maxExactMatches, minSimilarity, null);
+    }
+
+    /**
+     * Aligns all queries in a single blastn run so the database is only loaded once. Queries found in the alignment
+     * cache are not aligned again; new results are added to the cache.
+     */
+    public static HashMap<String, AlignmentResult> callShortQueryBlast(Collection<String> queries, File blastnFilePath, File blastnRefPath, int maxExactMatches, double minSimilarity, AlignmentCache alignmentCache) {
+        return callShortQueryBlast(queries, blastnFilePath, blastnRefPath, maxExactMatches, minSimilarity, alignmentCache, null);
+    }
+
+    /**
+     * @param metrics receives alignment cache hits; may be null
+     */
+    public static HashMap<String, AlignmentResult> callShortQueryBlast(Collection<String> queries, File blastnFilePath, File blastnRefPath, int maxExactMatches, double minSimilarity, AlignmentCache alignmentCache, DesignMetrics metrics) {
+
+        ArrayList<String> uniqueQueries = new ArrayList<>();
+        HashMap<String, AlignmentResult> results = new HashMap<>();
+
+        //check persistent cache before launching blastn
+        for (String query : new LinkedHashSet<>(queries)){
+
+            AlignmentResult cachedResult = null;
+
+            if (alignmentCache != null){
+                try {
+                    cachedResult = alignmentCache.get(query);
+                } catch (IOException e){
+                    log.log(Level.WARNING, "Could not read alignment cache: " + e.getMessage());
+                }
+            }
+
+            if (cachedResult != null){
+                results.put(query, cachedResult);
+            } else {
+                uniqueQueries.add(query);
+            }
+
+        }
 
         log.log(Level.FINE, "Calling short query blast ...");
-        log.log(Level.FINE, "Sequence: " + query);
+        log.log(Level.FINE, "Sequences: " + uniqueQueries.size() + ", cached: " + results.size());
+
+        if (metrics != null){
+            metrics.addCount(DesignMetrics.ALIGNMENT_CACHE_HITS, results.size());
+        }
+
+        int[] numberExactAlignments = new int[uniqueQueries.size()];
 
-        int numberExactAlignments = 0;
+        StringBuilder multiFasta = new StringBuilder();
+        ArrayList<ArrayList<GenomicLocation>> alignments = new ArrayList<>();
+        boolean blastSucceeded = false;
+
+        if (uniqueQueries.size() == 0){
+            return results;
+        }
+
+        //name queries by index
+        for (int n = 0; n < uniqueQueries.size(); ++n){
+            multiFasta.append(">");
+            multiFasta.append(n);
+            multiFasta.append("\n");
+            multiFasta.append(uniqueQueries.get(n));
+            multiFasta.append("\n");
+
+            alignments.add(new ArrayList<GenomicLocation>());
+        }
 
         ArrayList<String> output = new ArrayList<>();
-        ArrayList<GenomicLocation> alignments = new ArrayList<>();
 
         try{
 
-            ProcessBuilder builder = new ProcessBuilder(
+            ProcessRunner.Result result = ProcessRunner.getRunner("blastn").run(Arrays.asList(
                     blastnFilePath.toString(),
                     "-db", blastnRefPath.toString(),
                     "-task" , "blastn-short",
                     "-outfmt", "6"
-            );
-
-            Process process = builder.start();
-
-            OutputStream stdin = process.getOutputStream();
-            InputStream stdout = process.getInputStream();
-
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stdin));
+            ), multiFasta.toString());
 
-            writer.write(query);
-            writer.flush();
-            writer.close();
-
-            Scanner scanner = new Scanner(stdout);
-            while (scanner.hasNextLine()) {
-                output.add(scanner.nextLine());
+            if (result.getExitCode() != 0){
+                throw new RuntimeException("Problem invoking blastn-short, exit code: " + result.getExitCode() + ", " + result.getStderr());
             }
 
-            if (process.waitFor() != 0){
-                throw new RuntimeException("Problem invoking blastn-short, exit code: " + process.exitValue());
-            }
+            output = result.getStdout();
+            blastSucceeded = true;
 
         } catch (IOException e){
+            //failed; uncached queries are left without results so callers can tell
             log.log(Level.SEVERE, e.toString());
+            return results;
         } catch (InterruptedException e){
-            log.log(Level.SEVERE, e.toString());
+            //cancelled; blastn is stopped and results left uncached
+            log.log(Level.FINE, "blastn cancelled");
+            Thread.currentThread().interrupt();
+            return results;
         }
 
-        //extract genome coordinates from blast output
+        //extract genome coordinates from blast output; split by query
         for (String s : output){
 
             String[] fields = s.split("\t");
-            alignments.add(new GenomicLocation(fields[1], Integer.parseInt(fields[8]), Integer.parseInt(fields[9])));
+            int n = Integer.parseInt(fields[0]);
+
+            alignments.get(n).add(new GenomicLocation(fields[1], Integer.parseInt(fields[8]), Integer.parseInt(fields[9])));
 
-            if (fields[2].equals("100.00") && (double) Integer.parseInt(fields[3]) / query.length() >= minSimilarity){
-                numberExactAlignments++;
+            if (fields[2].equals("100.00") && (double) Integer.parseInt(fields[3]) / uniqueQueries.get(n).length() >= minSimilarity){
+                numberExactAlignments[n]++;
             }
 
         }
 
-        //throw error if too many alignemtns are identified
-        if (numberExactAlignments > maxExactMatches){
-            throw new MaxAlignmentExceededException("Sequence " + query + " has too many alignments (" + numberExactAlignments + ")");
+        for (int n = 0; n < uniqueQueries.size(); ++n){
+
+            AlignmentResult result = new AlignmentResult(uniqueQueries.get(n), alignments.get(n), numberExactAlignments[n], maxExactMatches);
+            results.put(uniqueQueries.get(n), result);
+
+            if (alignmentCache != null && blastSucceeded){
+                try {
+                    alignmentCache.put(result);
+                } catch (IOException e){
+                    log.log(Level.WARNING, "Could not write alignment cache: " + e.getMessage());
+                }
+            }
+
         }
 
-        return alignments;
+        return results;
 
     }
 
@@ -22,12 +22,31 @@ public class Configuration {
     private int maxTargetLength = 450; //maximum sequence length to attempt a primer design before splitting
     private int maxPrimerDistance = 5000; //maxmimum distance between two blastn alignements to consider a viable amplicon
     private int padding = 350; //extra reference sequence surrounding target
+    private int tileOverlap = 10; //overlap between windows of split targets
+    private int tileRetries = 2; //times a failed window is split and designed again
     private int maxIndelLength = 10; //maximum length of an indel to be excluded
     private int maxExactMatches = 1;
     private double minSimilarity = 0.95;
+    private long referenceCacheBytes = 256L * 1024 * 1024; //2-bit packed reference blocks held in memory
+    private int threads = Runtime.getRuntime().availableProcessors(); //worker threads for batch designs
+    private int primer3Processes = 0; //long-lived primer3_core processes; defaults to threads
+    private String specificityBackend = "blastn"; //blastn or kmer
+    private int kmerSeedLength = 10; //seed length of the in-process k-mer index
+    private int kmerMaxMismatches = 1; //mismatches allowed when placing primers with the k-mer index
+    private String kmerBlacklistMode = "off"; //off, reject or deprioritize candidates with a high-copy 3' k-mer
+    private int kmerBlacklistLength = 12; //3' k-mer length checked against the blacklist
+    private int kmerBlacklistThreshold = 2000; //genome copies on either strand for a k-mer to be blacklisted
+    private int speculativeCandidates = 0; //candidate pairs whose primers are aligned in one run, the next window aligning while one is checked; 0 checks all in one blastn run
+    private int primer3PageSize = 0; //candidate pairs in the first Primer3 call, doubled only if none are specific; 0 requests all at once
+    private int primer3Timeout = 0, blastnTimeout = 0; //seconds before an external process is killed; 0 waits indefinitely
+    private int blastnProcesses = 0; //concurrent blastn processes; 0 is unlimited
+    private int poolAlternatives = -1; //lower-ranked specific pairs kept per target to choose from when assembling pools; unset keeps 3 in pool mode and none otherwise
+    private int maxPoolSize = 0; //amplicons per multiplex pool; 0 is unlimited
+    private double poolMaxDimerDeltaG = -5.0; //most stable 3' cross-dimer (kcal/mol) allowed between primers in one pool
+    private String leftPrimerTail = "", rightPrimerTail = ""; //5' tails ligated to primers, e.g. M13 TGTAAAACGACGGCCAGT and CAGGAAACAGCTATGACC
     private boolean debug = false;
 
-    private File exonsBed, blastnRefPath, referenceGenomeFasta, primerDatabaseFile, excludedVariants, primerMisprimingLibrary, primer3Settings, primer3FilePath, blastnFilePath, bedtoolsFilePath, primerThermodynamicPararmetersPath;
+    private File exonsBed, blastnRefPath, referenceGenomeFasta, primerDatabaseFile, excludedVariants, primerMisprimingLibrary, primer3Settings, primer3FilePath, blastnFilePath, primerThermodynamicPararmetersPath, alignmentCacheFile, designCacheFile, metricsFile, outputFile;
 
     public Configuration(File configurationPath) {
         this.configurationPath = configurationPath;
@@ -65,10 +84,60 @@ public class Configuration {
                         primer3FilePath = new File(fields[1]);
                     } else if (fields[0].equals("blastnFilePath")){
                         blastnFilePath = new File(fields[1]);
-                    } else if (fields[0].equals("bedtoolsFilePath")){
-                        bedtoolsFilePath = new File(fields[1]);
                     } else if (fields[0].equals("primerThermodynamicPararmetersPath")){
                         primerThermodynamicPararmetersPath = new File(fields[1]);
+                    } else if (fields[0].equals("alignmentCacheFile")){
+                        alignmentCacheFile = new File(fields[1]);
+                    } else if (fields[0].equals("designCacheFile")){
+                        designCacheFile = new File(fields[1]);
+                    } else if (fields[0].equals("metricsFile")){
+                        metricsFile = new File(fields[1]);
+                    } else if (fields[0].equals("outputFile")){
+                        outputFile = new File(fields[1]);
+                    } else if (fields[0].equals("maxTargetLength")){
+                        maxTargetLength = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("tileOverlap")){
+                        tileOverlap = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("tileRetries")){
+                        tileRetries = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("referenceCacheBytes")){
+                        referenceCacheBytes = Long.parseLong(fields[1]);
+                    } else if (fields[0].equals("threads")){
+                        threads = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("primer3Processes")){
+                        primer3Processes = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("specificityBackend")){
+                        specificityBackend = fields[1];
+                    } else if (fields[0].equals("kmerSeedLength")){
+                        kmerSeedLength = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("kmerMaxMismatches")){
+                        kmerMaxMismatches = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("kmerBlacklistMode")){
+                        kmerBlacklistMode = fields[1];
+                    } else if (fields[0].equals("kmerBlacklistLength")){
+                        kmerBlacklistLength = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("kmerBlacklistThreshold")){
+                        kmerBlacklistThreshold = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("speculativeCandidates")){
+                        speculativeCandidates = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("primer3PageSize")){
+                        primer3PageSize = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("primer3Timeout")){
+                        primer3Timeout = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("blastnTimeout")){
+                        blastnTimeout = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("blastnProcesses")){
+                        blastnProcesses = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("poolAlternatives")){
+                        poolAlternatives = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("maxPoolSize")){
+                        maxPoolSize = Integer.parseInt(fields[1]);
+                    } else if (fields[0].equals("poolMaxDimerDeltaG")){
+                        poolMaxDimerDeltaG = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("leftPrimerTail")){
+                        leftPrimerTail = fields.length > 1 ? fields[1].trim().toUpperCase() : "";
+                    } else if (fields[0].equals("rightPrimerTail")){
+                        rightPrimerTail = fields.length > 1 ? fields[1].trim().toUpperCase() : "";
                     }
 
                 }
@@ -91,6 +160,12 @@ public class Configuration {
     public int getPadding() {
         return padding;
     }
+    public int getTileOverlap() {
+        return tileOverlap;
+    }
+    public int getTileRetries() {
+        return tileRetries;
+    }
     public int getMaxIndelLength() {
         return maxIndelLength;
     }
@@ -100,6 +175,66 @@ public class Configuration {
     public double getMinSimilarity() {
         return minSimilarity;
     }
+    public long getReferenceCacheBytes() {
+        return referenceCacheBytes;
+    }
+    public int getThreads() {
+        return threads;
+    }
+    public int getPrimer3Processes() {
+        return primer3Processes > 0 ? primer3Processes : threads;
+    }
+    public String getSpecificityBackend() {
+        return specificityBackend;
+    }
+    public int getKmerSeedLength() {
+        return kmerSeedLength;
+    }
+    public int getKmerMaxMismatches() {
+        return kmerMaxMismatches;
+    }
+    public String getKmerBlacklistMode() {
+        return kmerBlacklistMode;
+    }
+    public int getKmerBlacklistLength() {
+        return kmerBlacklistLength;
+    }
+    public int getKmerBlacklistThreshold() {
+        return kmerBlacklistThreshold;
+    }
+    public int getSpeculativeCandidates() {
+        return speculativeCandidates;
+    }
+    public int getPrimer3PageSize() {
+        return primer3PageSize;
+    }
+    public int getPoolAlternatives() {
+        return Math.max(poolAlternatives, 0);
+    }
+    public void enablePoolMode() {
+        if (poolAlternatives < 0) poolAlternatives = 3;
+    }
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+    public double getPoolMaxDimerDeltaG() {
+        return poolMaxDimerDeltaG;
+    }
+    public String getLeftPrimerTail() {
+        return leftPrimerTail;
+    }
+    public String getRightPrimerTail() {
+        return rightPrimerTail;
+    }
+    public int getPrimer3Timeout() {
+        return primer3Timeout;
+    }
+    public int getBlastnTimeout() {
+        return blastnTimeout;
+    }
+    public int getBlastnProcesses() {
+        return blastnProcesses;
+    }
     public boolean isDebug() {
         return debug;
     }
@@ -130,11 +265,20 @@ public class Configuration {
     public File getBlastnFilePath() {
         return blastnFilePath;
     }
-    public File getBedtoolsFilePath() {
-        return bedtoolsFilePath;
-    }
     public File getPrimerThermodynamicPararmetersPath() {
         return primerThermodynamicPararmetersPath;
     }
+    public File getAlignmentCacheFile() {
+        return alignmentCacheFile;
+    }
+    public File getDesignCacheFile() {
+        return designCacheFile;
+    }
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+    public File getOutputFile() {
+        return outputFile;
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent append-only store of final design outcomes, including targets with no specific pair. Entries are keyed by
+ * the 1-based target handed to Primer3 and a fingerprint of every setting and resource the design depends on, so any
+ * change to them leaves old entries unused. Records are checksummed and appended under an exclusive file lock so
+ * several processes can share one file.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class DesignCache implements Closeable {
+
+    private static final Logger log = Logger.getLogger(DesignCache.class.getName());
+    private static final int MAGIC = 0x50444341, VERSION = 2;
+
+    private long fingerprint;
+    private RecordLog recordLog;
+    private final HashMap<String, PrimerPair> results = new HashMap<>(); //null where no specific pair was found
+
+    public DesignCache(File cacheFile, Configuration configuration) throws IOException {
+        this.fingerprint = getFingerprint(configuration);
+        this.recordLog = new RecordLog(cacheFile, MAGIC, VERSION, false, new RecordLog.RecordReader() {
+            @Override
+            public void read(DataInputStream record) throws IOException {
+                readRecord(record);
+            }
+        });
+
+        log.log(Level.INFO, "Loaded " + results.size() + " cached design(s) from " + cacheFile);
+    }
+
+    /**
+     * @return true if the target was designed before with the same settings and resources
+     */
+    public synchronized boolean contains(GenomicLocation target) throws IOException {
+
+        String key = getKey(target.getContig(), target.getStartPosition(), target.getEndPosition());
+
+        //pick up entries appended by other processes
+        if (!results.containsKey(key) && recordLog.hasNewRecords()){
+            recordLog.readNewRecords();
+        }
+
+        return results.containsKey(key);
+    }
+
+    /**
+     * @return the cached primer pair or null if none was found; check {@link #contains} first
+     */
+    public synchronized PrimerPair get(GenomicLocation target){
+        return results.get(getKey(target.getContig(), target.getStartPosition(), target.getEndPosition()));
+    }
+
+    /**
+     * @param primerPair specific primer pair or null if none was found
+     */
+    public synchronized void put(final GenomicLocation target, final PrimerPair primerPair) throws IOException {
+
+        recordLog.append(new RecordLog.RecordWriter() {
+            @Override
+            public boolean write(DataOutputStream record) throws IOException {
+
+                record.writeLong(fingerprint);
+                record.writeUTF(target.getContig());
+                record.writeInt(target.getStartPosition());
+                record.writeInt(target.getEndPosition());
+                record.writeBoolean(primerPair != null);
+
+                if (primerPair != null){
+                    writePrimerPair(record, primerPair);
+                }
+
+                return true;
+            }
+        });
+
+        results.put(getKey(target.getContig(), target.getStartPosition(), target.getEndPosition()), primerPair);
+    }
+
+    private void readRecord(DataInputStream record) throws IOException {
+
+        if (record.readLong() != fingerprint){
+            return;
+        }
+
+        String key = getKey(record.readUTF(), record.readInt(), record.readInt());
+
+        if (!record.readBoolean()){
+            results.put(key, null);
+            return;
+        }
+
+        results.put(key, readPrimerPair(record));
+    }
+
+    /**
+     * Writes a primer pair and its pool alternatives
+     */
+    static void writePrimerPair(DataOutputStream record, PrimerPair primerPair) throws IOException {
+
+        writePrimerPairFields(record, primerPair);
+
+        record.writeInt(primerPair.getAlternatives().size());
+        for (PrimerPair alternative : primerPair.getAlternatives()){
+            writePrimerPairFields(record, alternative);
+        }
+    }
+
+    static PrimerPair readPrimerPair(DataInputStream record) throws IOException {
+
+        PrimerPair primerPair = readPrimerPairFields(record);
+
+        int numberOfAlternatives = record.readInt();
+        ArrayList<PrimerPair> alternatives = new ArrayList<>(numberOfAlternatives);
+        for (int n = 0; n < numberOfAlternatives; ++n){
+            alternatives.add(readPrimerPairFields(record));
+        }
+        primerPair.setAlternatives(alternatives);
+
+        return primerPair;
+    }
+
+    private static void writePrimerPairFields(DataOutputStream record, PrimerPair primerPair) throws IOException {
+        record.writeUTF(primerPair.getAmplifiableRegion().getContig());
+        record.writeInt(primerPair.getAmplifiableRegion().getStartPosition());
+        record.writeInt(primerPair.getAmplifiableRegion().getEndPosition());
+        record.writeInt(primerPair.getAmplifiableRegion().getStrand());
+        record.writeUTF(primerPair.getLeftSequence());
+        record.writeUTF(primerPair.getRightSequence());
+        record.writeUTF(primerPair.getLeftPosition());
+        record.writeUTF(primerPair.getRightPosition());
+        record.writeInt(primerPair.getProductSize());
+        for (double value : new double[]{primerPair.getPairPenalty(), primerPair.getLeftPenalty(), primerPair.getRightPenalty(),
+                primerPair.getLeftTm(), primerPair.getRightTm(), primerPair.getLeftGC(), primerPair.getRightGC(),
+                primerPair.getLeftSelfAnyTh(), primerPair.getRightSelfAnyTh(), primerPair.getLeftSelfEnd(), primerPair.getRightSelfEnd(),
+                primerPair.getLeftHairpin(), primerPair.getRightHairpin(), primerPair.getLeftEndStability(), primerPair.getRightEndStability(),
+                primerPair.getComplAny(), primerPair.getComplEnd()}){
+            record.writeDouble(value);
+        }
+    }
+
+    private static PrimerPair readPrimerPairFields(DataInputStream record) throws IOException {
+
+        PrimerPair primerPair = new PrimerPair();
+
+        GenomicLocation amplifiableRegion = new GenomicLocation(record.readUTF(), record.readInt(), record.readInt());
+        amplifiableRegion.setStrand(record.readInt());
+
+        primerPair.setAmplifiableRegion(amplifiableRegion);
+        primerPair.setLeftSequence(record.readUTF());
+        primerPair.setRightSequence(record.readUTF());
+        primerPair.setLeftPosition(record.readUTF());
+        primerPair.setRightPosition(record.readUTF());
+        primerPair.setProductSize(record.readInt());
+        primerPair.setPairPenalty(record.readDouble());
+        primerPair.setLeftPenalty(record.readDouble());
+        primerPair.setRightPenalty(record.readDouble());
+        primerPair.setLeftTm(record.readDouble());
+        primerPair.setRightTm(record.readDouble());
+        primerPair.setLeftGC(record.readDouble());
+        primerPair.setRightGC(record.readDouble());
+        primerPair.setLeftSelfAnyTh(record.readDouble());
+        primerPair.setRightSelfAnyTh(record.readDouble());
+        primerPair.setLeftSelfEnd(record.readDouble());
+        primerPair.setRightSelfEnd(record.readDouble());
+        primerPair.setLeftHairpin(record.readDouble());
+        primerPair.setRightHairpin(record.readDouble());
+        primerPair.setLeftEndStability(record.readDouble());
+        primerPair.setRightEndStability(record.readDouble());
+        primerPair.setComplAny(record.readDouble());
+        primerPair.setComplEnd(record.readDouble());
+
+        return primerPair;
+    }
+
+    private static String getKey(String contig, int start, int end){
+        return contig + ":" + start + "-" + end;
+    }
+
+    /**
+     * Hash of the design settings, the Primer3 settings file contents and the name, size and modification time of the
+     * reference, variants, Primer3 resources and specificity database
+     */
+    static long getFingerprint(Configuration configuration) throws IOException {
+
+        StringBuilder description = new StringBuilder();
+
+        description.append(configuration.getPadding()).append("\t")
+                .append(configuration.getMaxPrimerDistance()).append("\t")
+                .append(configuration.getMaxIndelLength()).append("\t")
+                .append(configuration.getMaxExactMatches()).append("\t")
+                .append(configuration.getMinSimilarity()).append("\t")
+                .append(configuration.getSpecificityBackend()).append("\t")
+                .append(configuration.getKmerSeedLength()).append("\t")
+                .append(configuration.getKmerMaxMismatches()).append("\t")
+                .append(configuration.getKmerBlacklistMode()).append("\t")
+                .append(configuration.getKmerBlacklistLength()).append("\t")
+                .append(configuration.getKmerBlacklistThreshold()).append("\t")
+                .append(configuration.getLeftPrimerTail()).append("\t")
+                .append(configuration.getRightPrimerTail()).append("\t")
+                .append(configuration.getPoolAlternatives()).append("\n");
+
+        for (File resource : new File[]{configuration.getReferenceGenomeFasta(), configuration.getExcludedVariants(),
+                configuration.getPrimer3FilePath(), configuration.getPrimerMisprimingLibrary(), configuration.getPrimerThermodynamicPararmetersPath()}){
+            if (resource != null){
+                description.append(resource.getAbsolutePath()).append("\t").append(resource.length()).append("\t").append(resource.lastModified()).append("\n");
+            }
+        }
+
+        if (configuration.getSpecificityBackend().equals("blastn") && configuration.getBlastnRefPath() != null){
+            description.append(AlignmentCache.getFingerprint(configuration.getBlastnRefPath(), configuration.getMaxExactMatches(), configuration.getMinSimilarity())).append("\n");
+        }
+
+        try {
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            if (configuration.getPrimer3Settings() != null && configuration.getPrimer3Settings().exists()){
+                digest.update(Files.readAllBytes(configuration.getPrimer3Settings().toPath()));
+            }
+
+            digest.update(description.toString().getBytes("UTF-8"));
+
+            return ByteBuffer.wrap(digest.digest()).getLong();
+
+        } catch (NoSuchAlgorithmException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        recordLog.close();
+    }
+
+    public File getCacheFile() {
+        return recordLog.getFile();
+    }
+}
@@ -0,0 +1,114 @@
+package nhs.genetics.cardiff;
+
+import com.google.gson.Gson;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-target stage timings and counters. Stages of one target may run on several threads, so updates are synchronised.
+ * Serialises to JSON as {"stages": {name: {calls, milliseconds}}, "counters": {name: value}}.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class DesignMetrics {
+
+    //stages
+    public static final String EXON_INTERSECT = "exonIntersect", MERGE = "merge", REFERENCE_FETCH = "referenceFetch",
+            VARIANT_EXCLUSION = "variantExclusion", PRIMER3_CALL = "primer3Call", PRIMER3_PARSE = "primer3Parse",
+            TAIL_RESCORE = "tailRescore", ALIGNMENT = "alignment", PAIRING = "pairing";
+
+    //counters
+    public static final String TARGETS = "targets", TILES = "tiles", CANDIDATE_PAIRS = "candidatePairs",
+            CANDIDATE_PAIRS_TESTED = "candidatePairsTested", BLACKLISTED_CANDIDATES = "blacklistedCandidates",
+            TAIL_REJECTED_CANDIDATES = "tailRejectedCandidates", PRIMER3_PAGES = "primer3Pages",
+            ALIGNED_PRIMERS = "alignedPrimers", ALIGNMENT_HITS = "alignmentHits", ALIGNMENT_CACHE_HITS = "alignmentCacheHits",
+            EXCLUDED_POSITIONS = "excludedPositions", DESIGN_CACHE_HITS = "designCacheHits", DATABASE_HITS = "databaseHits",
+            PRIMER_PAIRS = "primerPairs";
+
+    private final LinkedHashMap<String, Stage> stages = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> counters = new LinkedHashMap<>();
+
+    private static class Stage {
+        private long calls;
+        private double milliseconds;
+    }
+
+    /**
+     * @param startNanos from System.nanoTime() when the stage began
+     */
+    public void stop(String stage, long startNanos){
+        addTime(stage, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void addTime(String stage, long nanos){
+
+        Stage timing = stages.get(stage);
+
+        if (timing == null){
+            timing = new Stage();
+            stages.put(stage, timing);
+        }
+
+        timing.calls++;
+        timing.milliseconds += nanos / 1e6;
+    }
+
+    public synchronized void addCount(String counter, long value){
+        Long current = counters.get(counter);
+        counters.put(counter, current == null ? value : current + value);
+    }
+
+    /**
+     * Adds another target's metrics, e.g. for a batch summary
+     */
+    public void add(DesignMetrics metrics){
+
+        //copy first so the two locks are never held together
+        LinkedHashMap<String, Stage> otherStages = new LinkedHashMap<>();
+        LinkedHashMap<String, Long> otherCounters;
+
+        synchronized (metrics){
+            for (Map.Entry<String, Stage> entry : metrics.stages.entrySet()){
+                Stage copy = new Stage();
+                copy.calls = entry.getValue().calls;
+                copy.milliseconds = entry.getValue().milliseconds;
+                otherStages.put(entry.getKey(), copy);
+            }
+            otherCounters = new LinkedHashMap<>(metrics.counters);
+        }
+
+        synchronized (this){
+
+            for (Map.Entry<String, Stage> entry : otherStages.entrySet()){
+                Stage timing = stages.get(entry.getKey());
+                if (timing == null){
+                    stages.put(entry.getKey(), entry.getValue());
+                } else {
+                    timing.calls += entry.getValue().calls;
+                    timing.milliseconds += entry.getValue().milliseconds;
+                }
+            }
+
+            for (Map.Entry<String, Long> entry : otherCounters.entrySet()){
+                addCount(entry.getKey(), entry.getValue());
+            }
+
+        }
+    }
+
+    public synchronized long getCount(String counter){
+        Long value = counters.get(counter);
+        return value == null ? 0 : value;
+    }
+    public synchronized double getMilliseconds(String stage){
+        Stage timing = stages.get(stage);
+        return timing == null ? 0 : timing.milliseconds;
+    }
+
+    public synchronized String toJson(){
+        return new Gson().toJson(this);
+    }
+}
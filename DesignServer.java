@@ -0,0 +1,231 @@
+package nhs.genetics.cardiff;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local HTTP design service. Configuration and design resources are loaded once and shared by concurrent requests;
+ * responses are the JSON or BED printed by the command line. GET /design takes chrom, start and stop (1-based); POST
+ * /batch takes a regions file as the body, read as BED when bed=true. Both accept output=JSON (default), NDJSON or BED;
+ * NDJSON and BED batches are streamed as each target is designed. GET /metrics returns stage timings and counters
+ * summed over all requests since start.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class DesignServer {
+
+    private static final Logger log = Logger.getLogger(DesignServer.class.getName());
+
+    private Configuration configuration;
+    private PrimerDesigner primerDesigner;
+    private BatchDesigner batchDesigner;
+    private HttpServer server;
+    private ExecutorService requestExecutor;
+    private final DesignMetrics totalMetrics = new DesignMetrics();
+
+    public DesignServer(Configuration configuration, PrimerDesigner primerDesigner){
+        this.configuration = configuration;
+        this.primerDesigner = primerDesigner;
+        this.batchDesigner = new BatchDesigner(configuration, primerDesigner);
+    }
+
+    /**
+     * Listens on the loopback interface only
+     */
+    public void start(int port) throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        server.createContext("/design", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleDesign(exchange);
+            }
+        });
+        server.createContext("/batch", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleBatch(exchange);
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "application/json", totalMetrics.toJson() + "\n");
+            }
+        });
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "text/plain", "OK\n");
+            }
+        });
+
+        requestExecutor = Executors.newFixedThreadPool(configuration.getThreads());
+        server.setExecutor(requestExecutor);
+        server.start();
+
+        log.log(Level.INFO, "Listening on " + server.getAddress());
+    }
+
+    public void stop(){
+        if (server != null){
+            server.stop(0);
+            requestExecutor.shutdownNow();
+        }
+    }
+
+    private void handleDesign(HttpExchange exchange) throws IOException {
+
+        if (!exchange.getRequestMethod().equals("GET")){
+            respond(exchange, 405, "text/plain", "Use GET\n");
+            return;
+        }
+
+        try {
+
+            HashMap<String, String> parameters = getParameters(exchange);
+            String outputType = getOutputType(parameters);
+
+            if (!parameters.containsKey("chrom") || !parameters.containsKey("start") || !parameters.containsKey("stop")){
+                throw new IllegalArgumentException("chrom, start and stop are required");
+            }
+
+            ArrayList<GenomicLocation> suppliedROIs = new ArrayList<>();
+            suppliedROIs.add(new GenomicLocation(parameters.get("chrom"), Integer.parseInt(parameters.get("start")), Integer.parseInt(parameters.get("stop"))));
+
+            ArrayList<ArrayList<PrimerPair>> primerPairs = new ArrayList<>();
+            DesignMetrics metrics = new DesignMetrics();
+
+            try {
+                primerPairs.add(primerDesigner.designPrimers(suppliedROIs.get(0), metrics));
+            } catch (RuntimeException e){
+                log.log(Level.SEVERE, "Could not design target " + parameters.get("chrom") + ":" + parameters.get("start") + "-" + parameters.get("stop") + ": " + e);
+                primerPairs.add(new ArrayList<PrimerPair>());
+            }
+
+            totalMetrics.add(metrics);
+
+            if (outputType.equals("JSON")){
+                respond(exchange, 200, "application/json", DesignWriter.toJson(suppliedROIs.get(0), primerPairs.get(0), metrics));
+            } else if (outputType.equals("NDJSON")){
+                StringWriter record = new StringWriter();
+                new DesignWriter(record, outputType).write(suppliedROIs.get(0), primerPairs.get(0), metrics);
+                respond(exchange, 200, "application/x-ndjson", record.toString());
+            } else {
+                respond(exchange, 200, "text/plain", Main.toBed(suppliedROIs, primerPairs) + "\n");
+            }
+
+        } catch (IllegalArgumentException e){
+            respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+        } catch (RuntimeException e){
+            log.log(Level.SEVERE, "Could not handle request: " + e);
+            respond(exchange, 500, "text/plain", e + "\n");
+        }
+
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+
+        if (!exchange.getRequestMethod().equals("POST")){
+            respond(exchange, 405, "text/plain", "Use POST\n");
+            return;
+        }
+
+        try {
+
+            HashMap<String, String> parameters = getParameters(exchange);
+            String outputType = getOutputType(parameters);
+            ArrayList<GenomicLocation> suppliedROIs;
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))){
+                suppliedROIs = BatchDesigner.readRegions(reader, "true".equals(parameters.get("bed")));
+            }
+
+            //stream each target as it is designed; errors can no longer change the status once started
+            if (!outputType.equals("JSON")){
+
+                exchange.getResponseHeaders().set("Content-Type", outputType.equals("NDJSON") ? "application/x-ndjson" : "text/plain");
+                exchange.sendResponseHeaders(200, 0);
+
+                try (DesignWriter designWriter = new DesignWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)), outputType)){
+                    totalMetrics.add(batchDesigner.designPrimers(suppliedROIs.iterator(), designWriter));
+                }
+
+                return;
+            }
+
+            ArrayList<DesignMetrics> metrics = new ArrayList<>();
+            ArrayList<ArrayList<PrimerPair>> primerPairs = batchDesigner.designPrimers(suppliedROIs, metrics);
+
+            for (DesignMetrics targetMetrics : metrics){
+                totalMetrics.add(targetMetrics);
+            }
+
+            respond(exchange, 200, "application/json", DesignWriter.toJsonArray(suppliedROIs, primerPairs, metrics));
+
+        } catch (IllegalArgumentException e){
+            respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+        } catch (RuntimeException e){
+            log.log(Level.SEVERE, "Could not handle request: " + e);
+            respond(exchange, 500, "text/plain", e + "\n");
+        }
+
+    }
+
+    private static String getOutputType(HashMap<String, String> parameters){
+
+        String outputType = parameters.containsKey("output") ? parameters.get("output").toUpperCase() : "JSON";
+
+        if (!outputType.equals("JSON") && !outputType.equals("NDJSON") && !outputType.equals("BED")){
+            throw new IllegalArgumentException("Output type must be JSON, NDJSON or BED");
+        }
+
+        return outputType;
+    }
+
+    private static HashMap<String, String> getParameters(HttpExchange exchange) throws UnsupportedEncodingException {
+
+        HashMap<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query == null) return parameters;
+
+        for (String parameter : query.split("&")){
+            int equals = parameter.indexOf('=');
+            if (equals > 0){
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()){
+            out.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package nhs.genetics.cardiff;
+
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Writes designs one target at a time as JSON Lines (NDJSON) or BED and flushes after each, so results reach the
+ * consumer as soon as they are designed and nothing is held in memory. NDJSON records carry the supplied target, every
+ * amplicon with its full primer metrics and the design metrics. JSON output is built from the same records.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class DesignWriter implements Closeable {
+
+    private final Writer writer;
+    private final boolean bed;
+    private final Gson gson = new Gson();
+
+    private static class Record {
+        private String chromosome;
+        private int startPosition, endPosition;
+        private ArrayList<Amplicon> amplicons = new ArrayList<>();
+        private DesignMetrics metrics;
+    }
+
+    private static class Amplicon {
+        private String chromosome, strand, leftSequence, rightSequence;
+        private int startPosition, endPosition, productSize;
+        private double pairPenalty, complAny, complEnd, leftPenalty, rightPenalty, leftTm, rightTm, leftGC, rightGC,
+                leftSelfAnyTh, rightSelfAnyTh, leftSelfEnd, rightSelfEnd, leftHairpin, rightHairpin, leftEndStability,
+                rightEndStability;
+    }
+
+    /**
+     * @param outputType NDJSON or BED
+     */
+    public DesignWriter(Writer writer, String outputType){
+
+        if (!outputType.equals("NDJSON") && !outputType.equals("BED")){
+            throw new IllegalArgumentException("Streaming output type must be NDJSON or BED");
+        }
+
+        this.writer = writer;
+        this.bed = outputType.equals("BED");
+    }
+
+    /**
+     * @param target supplied 1-based target
+     * @param metrics may be null
+     */
+    public synchronized void write(GenomicLocation target, ArrayList<PrimerPair> primerPairs, DesignMetrics metrics) throws IOException {
+
+        if (bed){
+            StringBuilder bedOutput = new StringBuilder();
+            appendBed(bedOutput, target, primerPairs);
+            writer.write(bedOutput.toString());
+        } else {
+            writer.write(gson.toJson(toRecord(target, primerPairs, metrics)));
+            writer.write("\n");
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Single target JSON; the NDJSON record
+     */
+    static String toJson(GenomicLocation target, ArrayList<PrimerPair> primerPairs, DesignMetrics metrics){
+        return new Gson().toJson(toRecord(target, primerPairs, metrics));
+    }
+
+    /**
+     * Batch JSON; an array of NDJSON records in target order
+     */
+    static String toJsonArray(ArrayList<GenomicLocation> targets, ArrayList<ArrayList<PrimerPair>> primerPairs, ArrayList<DesignMetrics> metrics){
+
+        ArrayList<Record> records = new ArrayList<>();
+
+        for (int n = 0; n < targets.size(); ++n){
+            records.add(toRecord(targets.get(n), primerPairs.get(n), metrics.get(n)));
+        }
+
+        return new Gson().toJson(records);
+    }
+
+    private static Record toRecord(GenomicLocation target, ArrayList<PrimerPair> primerPairs, DesignMetrics metrics){
+
+        Record record = new Record();
+
+        record.chromosome = target.getContig();
+        record.startPosition = target.getStartPosition();
+        record.endPosition = target.getEndPosition();
+        record.metrics = metrics;
+
+        for (PrimerPair primerPair : primerPairs){
+
+            Amplicon amplicon = new Amplicon();
+
+            amplicon.chromosome = primerPair.getAmplifiableRegion().getContig();
+            amplicon.startPosition = primerPair.getAmplifiableRegion().getStartPosition();
+            amplicon.endPosition = primerPair.getAmplifiableRegion().getEndPosition();
+            amplicon.strand = primerPair.getAmplifiableRegion().getStrand() == 1 ? "+" : "-";
+            amplicon.leftSequence = primerPair.getLeftSequence();
+            amplicon.rightSequence = primerPair.getRightSequence();
+            amplicon.productSize = primerPair.getProductSize();
+            amplicon.pairPenalty = primerPair.getPairPenalty();
+            amplicon.complAny = primerPair.getComplAny();
+            amplicon.complEnd = primerPair.getComplEnd();
+            amplicon.leftPenalty = primerPair.getLeftPenalty();
+            amplicon.rightPenalty = primerPair.getRightPenalty();
+            amplicon.leftTm = primerPair.getLeftTm();
+            amplicon.rightTm = primerPair.getRightTm();
+            amplicon.leftGC = primerPair.getLeftGC();
+            amplicon.rightGC = primerPair.getRightGC();
+            amplicon.leftSelfAnyTh = primerPair.getLeftSelfAnyTh();
+            amplicon.rightSelfAnyTh = primerPair.getRightSelfAnyTh();
+            amplicon.leftSelfEnd = primerPair.getLeftSelfEnd();
+            amplicon.rightSelfEnd = primerPair.getRightSelfEnd();
+            amplicon.leftHairpin = primerPair.getLeftHairpin();
+            amplicon.rightHairpin = primerPair.getRightHairpin();
+            amplicon.leftEndStability = primerPair.getLeftEndStability();
+            amplicon.rightEndStability = primerPair.getRightEndStability();
+
+            record.amplicons.add(amplicon);
+        }
+
+        return record;
+    }
+
+    /**
+     * One BED line per amplicon covering the primers, with the amplifiable region as the thick part
+     */
+    static void appendBed(StringBuilder bedOutput, GenomicLocation target, ArrayList<PrimerPair> primerPairs){
+        appendBed(bedOutput, "amplicon", primerPairs);
+    }
+
+    static void appendBed(StringBuilder bedOutput, String name, ArrayList<PrimerPair> primerPairs){
+        for (PrimerPair primerPair : primerPairs){
+            bedOutput.append(primerPair.getAmplifiableRegion().getContig());
+            bedOutput.append("\t");
+            bedOutput.append((primerPair.getAmplifiableRegion().getStartPosition() - primerPair.getLeftSequence().length()) - 1);
+            bedOutput.append("\t");
+            bedOutput.append((primerPair.getAmplifiableRegion().getEndPosition() + primerPair.getRightSequence().length()));
+            bedOutput.append("\t");
+            bedOutput.append(name);
+            bedOutput.append("\t");
+            bedOutput.append(Math.round(primerPair.getPairPenalty()));
+            bedOutput.append("\t");
+            if (primerPair.getAmplifiableRegion().getStrand() == 1) bedOutput.append("+\t"); else bedOutput.append("-\t");
+            bedOutput.append((primerPair.getAmplifiableRegion().getStartPosition() - 1));
+            bedOutput.append("\t");
+            bedOutput.append(primerPair.getAmplifiableRegion().getEndPosition());
+            bedOutput.append("\n");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,116 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+
+/**
+ * Shared pieces of the indexes built from reference and variant files: the 2-bit base encoding, the header recording
+ * the source file and build parameters, and atomic replacement of a finished index. Indexes are rebuilt when the source
+ * file's size or modification time or any build parameter differs from the header.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class IndexFiles {
+
+    private IndexFiles(){
+    }
+
+    /**
+     * @return 2-bit code (A0 C1 G2 T3) of either case, or -1 for any other base
+     */
+    public static int encode(int base){
+        switch (base){
+            case 'A': case 'a': return 0;
+            case 'C': case 'c': return 1;
+            case 'G': case 'g': return 2;
+            case 'T': case 't': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Key for an in-memory index; distinct for every source file and parameter combination
+     */
+    public static String getKey(File sourceFilePath, int... parameters){
+
+        StringBuilder key = new StringBuilder(sourceFilePath.getAbsolutePath());
+
+        for (int parameter : parameters){
+            key.append('\t').append(parameter);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * @return bytes taken by a header with the given number of parameters
+     */
+    public static int getHeaderLength(int numberOfParameters){
+        return 4 + 4 + 8 + 8 + 4 * numberOfParameters;
+    }
+
+    public static void writeHeader(DataOutput out, int magic, int version, File sourceFilePath, int... parameters) throws IOException {
+
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeLong(sourceFilePath.length());
+        out.writeLong(sourceFilePath.lastModified());
+
+        for (int parameter : parameters){
+            out.writeInt(parameter);
+        }
+    }
+
+    /**
+     * @return true if the header was written by this version from the same source file and parameters
+     */
+    public static boolean readHeader(DataInput in, int magic, int version, File sourceFilePath, int... parameters) throws IOException {
+
+        try {
+
+            if (in.readInt() != magic || in.readInt() != version || in.readLong() != sourceFilePath.length() || in.readLong() != sourceFilePath.lastModified()){
+                return false;
+            }
+
+            for (int parameter : parameters){
+                if (in.readInt() != parameter) return false;
+            }
+
+            return true;
+
+        } catch (EOFException e){
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the index exists and is current
+     */
+    public static boolean isCurrent(File indexFilePath, int magic, int version, File sourceFilePath, int... parameters) throws IOException {
+
+        if (!indexFilePath.exists()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFilePath)))){
+            return readHeader(in, magic, version, sourceFilePath, parameters);
+        }
+    }
+
+    /**
+     * File an index is written to before it replaces the existing one
+     */
+    public static File getTemporaryFile(File indexFilePath){
+        return new File(indexFilePath + ".tmp");
+    }
+
+    /**
+     * Replaces the index atomically so concurrent readers never see a partial file
+     */
+    public static void replace(File temporaryFilePath, File indexFilePath) throws IOException {
+        if (!temporaryFilePath.renameTo(indexFilePath)){
+            temporaryFilePath.delete();
+            throw new IOException("Could not rename " + temporaryFilePath);
+        }
+    }
+
+}
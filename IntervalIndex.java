@@ -0,0 +1,433 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory index of BED features. Each contig is held as primitive arrays sorted by start with an implicit augmented
+ * interval tree (after cgranges, https://github.com/lh3/cgranges) so overlap queries are O(log n + k). A binary copy is
+ * written next to the BED so later runs skip parsing.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class IntervalIndex {
+
+    private static final Logger log = Logger.getLogger(IntervalIndex.class.getName());
+    private static final int MAGIC = 0x50444949, VERSION = 1;
+    private static final HashMap<File, IntervalIndex> indexes = new HashMap<>();
+
+    private final HashMap<String, Contig> contigs = new HashMap<>();
+    private String[] names;
+
+    private static class Contig {
+        private int[] starts, ends, maxEnds, ids;
+        private int maxLevel;
+    }
+
+    private IntervalIndex(){
+    }
+
+    /**
+     * Shared index for a BED file; loaded once per process
+     */
+    public static IntervalIndex getIndex(File bedFilePath) throws IOException {
+        synchronized (indexes){
+
+            IntervalIndex index = indexes.get(bedFilePath);
+
+            if (index == null){
+                index = load(bedFilePath);
+                indexes.put(bedFilePath, index);
+            }
+
+            return index;
+        }
+    }
+
+    public static IntervalIndex load(File bedFilePath) throws IOException {
+
+        File binaryFilePath = new File(bedFilePath + ".intervals");
+
+        //use binary copy if up to date
+        try {
+            if (IndexFiles.isCurrent(binaryFilePath, MAGIC, VERSION, bedFilePath)){
+                IntervalIndex index = readBinary(binaryFilePath);
+                log.log(Level.FINE, "Loaded interval index " + binaryFilePath);
+                return index;
+            } else if (binaryFilePath.exists()){
+                log.log(Level.INFO, "Interval index " + binaryFilePath + " is out of date");
+            }
+        } catch (IOException e){
+            log.log(Level.WARNING, "Could not read interval index " + binaryFilePath + ", rebuilding: " + e.getMessage());
+        }
+
+        IntervalIndex index = readBed(bedFilePath);
+
+        try {
+            index.writeBinary(binaryFilePath, bedFilePath);
+        } catch (IOException e){
+            log.log(Level.WARNING, "Could not write interval index " + binaryFilePath + ": " + e.getMessage());
+        }
+
+        return index;
+    }
+
+    private static IntervalIndex readBed(File bedFilePath) throws IOException {
+
+        String line;
+        int id = 0;
+        boolean hasNames = false;
+        ArrayList<String> names = new ArrayList<>();
+        HashMap<String, int[][]> features = new LinkedHashMap<>(); //contig -> {starts, ends, ids}
+        HashMap<String, Integer> counts = new HashMap<>();
+
+        log.log(Level.INFO, "Indexing " + bedFilePath);
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(bedFilePath))){
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.equals("") || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+
+                String[] fields = line.split("\t");
+
+                int[][] contig = features.get(fields[0]);
+                Integer count = counts.get(fields[0]);
+
+                if (contig == null){
+                    contig = new int[][]{new int[1024], new int[1024], new int[1024]};
+                    count = 0;
+                } else if (count == contig[0].length){
+                    contig = new int[][]{Arrays.copyOf(contig[0], count * 2), Arrays.copyOf(contig[1], count * 2), Arrays.copyOf(contig[2], count * 2)};
+                }
+
+                contig[0][count] = Integer.parseInt(fields[1]);
+                contig[1][count] = Integer.parseInt(fields[2]);
+                contig[2][count] = id++;
+
+                features.put(fields[0], contig);
+                counts.put(fields[0], count + 1);
+
+                names.add(fields.length > 3 ? fields[3] : null);
+                if (fields.length > 3) hasNames = true;
+            }
+
+            reader.close();
+        }
+
+        IntervalIndex index = new IntervalIndex();
+        index.names = hasNames ? names.toArray(new String[names.size()]) : null;
+
+        for (Map.Entry<String, int[][]> entry : features.entrySet()){
+            int n = counts.get(entry.getKey());
+            index.contigs.put(entry.getKey(), buildContig(Arrays.copyOf(entry.getValue()[0], n), Arrays.copyOf(entry.getValue()[1], n), Arrays.copyOf(entry.getValue()[2], n)));
+        }
+
+        return index;
+    }
+
+    /**
+     * Index of 0-based half-open features held in memory; ids are positions in the list
+     */
+    static IntervalIndex build(List<GenomicLocation> features){
+
+        HashMap<String, int[][]> contigFeatures = new LinkedHashMap<>(); //contig -> {starts, ends, ids}
+        HashMap<String, Integer> counts = new HashMap<>();
+
+        for (int id = 0; id < features.size(); ++id){
+
+            GenomicLocation feature = features.get(id);
+            int[][] contig = contigFeatures.get(feature.getContig());
+            Integer count = counts.get(feature.getContig());
+
+            if (contig == null){
+                contig = new int[][]{new int[16], new int[16], new int[16]};
+                count = 0;
+            } else if (count == contig[0].length){
+                contig = new int[][]{Arrays.copyOf(contig[0], count * 2), Arrays.copyOf(contig[1], count * 2), Arrays.copyOf(contig[2], count * 2)};
+            }
+
+            contig[0][count] = feature.getStartPosition();
+            contig[1][count] = feature.getEndPosition();
+            contig[2][count] = id;
+
+            contigFeatures.put(feature.getContig(), contig);
+            counts.put(feature.getContig(), count + 1);
+        }
+
+        IntervalIndex index = new IntervalIndex();
+
+        for (Map.Entry<String, int[][]> entry : contigFeatures.entrySet()){
+            int n = counts.get(entry.getKey());
+            index.contigs.put(entry.getKey(), buildContig(Arrays.copyOf(entry.getValue()[0], n), Arrays.copyOf(entry.getValue()[1], n), Arrays.copyOf(entry.getValue()[2], n)));
+        }
+
+        return index;
+    }
+
+    private static Contig buildContig(int[] starts, int[] ends, int[] ids){
+
+        int n = starts.length;
+        Contig contig = new Contig();
+
+        //sort by start, then file order
+        long[] order = new long[n];
+        for (int i = 0; i < n; ++i){
+            order[i] = ((long) starts[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        contig.starts = new int[n];
+        contig.ends = new int[n];
+        contig.ids = new int[n];
+        contig.maxEnds = new int[n];
+
+        for (int i = 0; i < n; ++i){
+            int j = (int) order[i];
+            contig.starts[i] = starts[j];
+            contig.ends[i] = ends[j];
+            contig.ids[i] = ids[j];
+        }
+
+        contig.maxLevel = indexContig(contig.ends, contig.maxEnds);
+
+        return contig;
+    }
+
+    /**
+     * Fills the maximum end of each implicit subtree; returns the root level
+     */
+    private static int indexContig(int[] ends, int[] maxEnds){
+
+        int n = ends.length, i, lastIndex = 0, last, k;
+
+        if (n == 0) return -1;
+
+        //leaves
+        for (i = 0; i < n; i += 2){
+            lastIndex = i;
+            maxEnds[i] = ends[i];
+        }
+        last = maxEnds[lastIndex];
+
+        //internal nodes
+        for (k = 1; 1 << k <= n; ++k){
+
+            int x = 1 << (k - 1), i0 = (x << 1) - 1, step = x << 2;
+
+            for (i = i0; i < n; i += step){
+                int left = maxEnds[i - x];
+                int right = i + x < n ? maxEnds[i + x] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(left, right));
+            }
+
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[lastIndex] > last) last = maxEnds[lastIndex];
+        }
+
+        return k - 1;
+    }
+
+    /**
+     * Features overlapping a 0-based half-open lookup, in file order
+     */
+    public ArrayList<GenomicLocation> getOverlappingFeatures(GenomicLocation lookup){
+
+        ArrayList<GenomicLocation> features = new ArrayList<>();
+        Contig contig = contigs.get(lookup.getContig());
+
+        if (contig == null){
+            return features;
+        }
+
+        int[] hits = getOverlappingIndices(contig, lookup.getStartPosition(), lookup.getEndPosition());
+        long[] order = new long[hits.length];
+
+        for (int i = 0; i < hits.length; ++i){
+            order[i] = ((long) contig.ids[hits[i]] << 32) | hits[i];
+        }
+        Arrays.sort(order);
+
+        for (long o : order){
+            int i = (int) o;
+            if (names != null && names[contig.ids[i]] != null){
+                features.add(new GenomicLocation(lookup.getContig(), contig.starts[i], contig.ends[i], names[contig.ids[i]]));
+            } else {
+                features.add(new GenomicLocation(lookup.getContig(), contig.starts[i], contig.ends[i]));
+            }
+        }
+
+        return features;
+    }
+
+    /**
+     * Ids of features overlapping a 0-based half-open lookup, ascending
+     */
+    int[] getOverlappingIds(GenomicLocation lookup){
+
+        Contig contig = contigs.get(lookup.getContig());
+
+        if (contig == null){
+            return new int[0];
+        }
+
+        int[] hits = getOverlappingIndices(contig, lookup.getStartPosition(), lookup.getEndPosition());
+
+        for (int i = 0; i < hits.length; ++i){
+            hits[i] = contig.ids[hits[i]];
+        }
+        Arrays.sort(hits);
+
+        return hits;
+    }
+
+    private static int[] getOverlappingIndices(Contig contig, int start, int end){
+
+        int n = contig.starts.length, t = 0, hits = 0;
+        int[] result = new int[16];
+        int[] stackLevel = new int[64], stackNode = new int[64];
+        boolean[] stackLeftDone = new boolean[64];
+
+        if (n == 0) return new int[0];
+
+        stackLevel[t] = contig.maxLevel;
+        stackNode[t] = (1 << contig.maxLevel) - 1;
+        stackLeftDone[t++] = false;
+
+        while (t > 0){
+
+            --t;
+            int k = stackLevel[t], x = stackNode[t];
+            boolean leftDone = stackLeftDone[t];
+
+            if (k <= 3){
+
+                //small subtree; linear scan
+                int i0 = x >> k << k, i1 = i0 + (1 << (k + 1)) - 1;
+                if (i1 >= n) i1 = n;
+
+                for (int i = i0; i < i1 && contig.starts[i] < end; ++i){
+                    if (start < contig.ends[i]){
+                        if (hits == result.length) result = Arrays.copyOf(result, hits * 2);
+                        result[hits++] = i;
+                    }
+                }
+
+            } else if (!leftDone){
+
+                //re-add node and descend left if it may overlap
+                int y = x - (1 << (k - 1));
+
+                stackLevel[t] = k;
+                stackNode[t] = x;
+                stackLeftDone[t++] = true;
+
+                if (y >= n || contig.maxEnds[y] > start){
+                    stackLevel[t] = k - 1;
+                    stackNode[t] = y;
+                    stackLeftDone[t++] = false;
+                }
+
+            } else if (x < n && contig.starts[x] < end){
+
+                if (start < contig.ends[x]){
+                    if (hits == result.length) result = Arrays.copyOf(result, hits * 2);
+                    result[hits++] = x;
+                }
+
+                stackLevel[t] = k - 1;
+                stackNode[t] = x + (1 << (k - 1));
+                stackLeftDone[t++] = false;
+            }
+
+        }
+
+        return Arrays.copyOf(result, hits);
+    }
+
+    private void writeBinary(File binaryFilePath, File bedFilePath) throws IOException {
+
+        File temporaryFilePath = IndexFiles.getTemporaryFile(binaryFilePath);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFilePath)))){
+
+            IndexFiles.writeHeader(out, MAGIC, VERSION, bedFilePath);
+
+            out.writeInt(contigs.size());
+            for (Map.Entry<String, Contig> entry : contigs.entrySet()){
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().maxLevel);
+                writeInts(out, entry.getValue().starts);
+                writeInts(out, entry.getValue().ends);
+                writeInts(out, entry.getValue().maxEnds);
+                writeInts(out, entry.getValue().ids);
+            }
+
+            out.writeBoolean(names != null);
+            if (names != null){
+                out.writeInt(names.length);
+                for (String name : names){
+                    out.writeUTF(name == null ? "" : name);
+                }
+            }
+
+            out.close();
+        }
+
+        IndexFiles.replace(temporaryFilePath, binaryFilePath);
+    }
+
+    private static IntervalIndex readBinary(File binaryFilePath) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFilePath)))){
+
+            in.skipBytes(IndexFiles.getHeaderLength(0));
+
+            IntervalIndex index = new IntervalIndex();
+
+            int numberOfContigs = in.readInt();
+            for (int n = 0; n < numberOfContigs; ++n){
+                String name = in.readUTF();
+                Contig contig = new Contig();
+                contig.maxLevel = in.readInt();
+                contig.starts = readInts(in);
+                contig.ends = readInts(in);
+                contig.maxEnds = readInts(in);
+                contig.ids = readInts(in);
+                index.contigs.put(name, contig);
+            }
+
+            if (in.readBoolean()){
+                index.names = new String[in.readInt()];
+                for (int n = 0; n < index.names.length; ++n){
+                    String name = in.readUTF();
+                    index.names[n] = name.equals("") ? null : name;
+                }
+            }
+
+            return index;
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values){
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int n = 0; n < values.length; ++n){
+            values[n] = in.readInt();
+        }
+        return values;
+    }
+
+}
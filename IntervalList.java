@@ -0,0 +1,220 @@
+package nhs.genetics.cardiff;
+
+import java.util.*;
+
+/**
+ * Ordered set of 0-based half-open intervals held as primitive arrays per contig. Merge, intersect, subtract and
+ * complement are sort-and-sweep operations; results are sorted by contig then start.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class IntervalList {
+
+    private final TreeMap<String, Intervals> contigs = new TreeMap<>();
+
+    private static class Intervals {
+
+        private int[] starts = new int[16], ends = new int[16];
+        private int size = 0;
+        private boolean sorted = true;
+
+        private void add(int start, int end){
+            if (size == starts.length){
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            if (size > 0 && (start < starts[size - 1] || (start == starts[size - 1] && end < ends[size - 1]))){
+                sorted = false;
+            }
+            starts[size] = start;
+            ends[size++] = end;
+        }
+
+        private void sort(){
+
+            if (sorted) return;
+
+            long[] keys = new long[size];
+            for (int i = 0; i < size; ++i){
+                keys[i] = ((long) starts[i] << 32) | (ends[i] & 0xffffffffL);
+            }
+            Arrays.sort(keys);
+
+            for (int i = 0; i < size; ++i){
+                starts[i] = (int) (keys[i] >>> 32);
+                ends[i] = (int) keys[i];
+            }
+
+            sorted = true;
+        }
+    }
+
+    public IntervalList(){
+    }
+
+    public IntervalList(Collection<GenomicLocation> locations){
+        for (GenomicLocation location : locations){
+            add(location);
+        }
+    }
+
+    public void add(GenomicLocation location){
+        add(location.getContig(), location.getStartPosition(), location.getEndPosition());
+    }
+
+    public void add(String contig, int start, int end){
+
+        if (end < start){
+            throw new IllegalArgumentException("Interval end before start: " + contig + ":" + start + "-" + end);
+        }
+
+        Intervals intervals = contigs.get(contig);
+
+        if (intervals == null){
+            intervals = new Intervals();
+            contigs.put(contig, intervals);
+        }
+
+        intervals.add(start, end);
+    }
+
+    /**
+     * Combines overlapping and book-ended intervals, as bedtools merge
+     */
+    public IntervalList merge(){
+
+        IntervalList merged = new IntervalList();
+
+        for (Map.Entry<String, Intervals> entry : contigs.entrySet()){
+
+            Intervals intervals = entry.getValue();
+            intervals.sort();
+
+            if (intervals.size == 0) continue;
+
+            int start = intervals.starts[0], end = intervals.ends[0];
+
+            for (int i = 1; i < intervals.size; ++i){
+                if (intervals.starts[i] <= end){
+                    end = Math.max(end, intervals.ends[i]);
+                } else {
+                    merged.add(entry.getKey(), start, end);
+                    start = intervals.starts[i];
+                    end = intervals.ends[i];
+                }
+            }
+
+            merged.add(entry.getKey(), start, end);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Bases covered by both lists
+     */
+    public IntervalList intersect(IntervalList other){
+
+        IntervalList result = new IntervalList();
+        IntervalList a = merge(), b = other.merge();
+
+        for (Map.Entry<String, Intervals> entry : a.contigs.entrySet()){
+
+            Intervals x = entry.getValue(), y = b.contigs.get(entry.getKey());
+            if (y == null) continue;
+
+            int i = 0, j = 0;
+            while (i < x.size && j < y.size){
+
+                int start = Math.max(x.starts[i], y.starts[j]);
+                int end = Math.min(x.ends[i], y.ends[j]);
+
+                if (start < end){
+                    result.add(entry.getKey(), start, end);
+                }
+
+                //advance whichever finishes first
+                if (x.ends[i] < y.ends[j]) ++i; else ++j;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Bases covered by this list but not the other
+     */
+    public IntervalList subtract(IntervalList other){
+
+        IntervalList result = new IntervalList();
+        IntervalList a = merge(), b = other.merge();
+
+        for (Map.Entry<String, Intervals> entry : a.contigs.entrySet()){
+
+            Intervals x = entry.getValue(), y = b.contigs.get(entry.getKey());
+            int j = 0;
+
+            for (int i = 0; i < x.size; ++i){
+
+                int start = x.starts[i], end = x.ends[i];
+
+                //skip subtractions ending before this interval
+                while (y != null && j < y.size && y.ends[j] <= start) ++j;
+
+                int k = j;
+                while (y != null && k < y.size && y.starts[k] < end){
+                    if (y.starts[k] > start){
+                        result.add(entry.getKey(), start, y.starts[k]);
+                    }
+                    start = Math.max(start, y.ends[k]);
+                    ++k;
+                }
+
+                if (start < end){
+                    result.add(entry.getKey(), start, end);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Bases not covered by this list, given the length of each contig
+     */
+    public IntervalList complement(Map<String, Integer> contigLengths){
+
+        IntervalList whole = new IntervalList();
+
+        for (Map.Entry<String, Integer> entry : contigLengths.entrySet()){
+            whole.add(entry.getKey(), 0, entry.getValue());
+        }
+
+        return whole.subtract(this);
+    }
+
+    public ArrayList<GenomicLocation> toGenomicLocations(){
+
+        ArrayList<GenomicLocation> locations = new ArrayList<>(size());
+
+        for (Map.Entry<String, Intervals> entry : contigs.entrySet()){
+            entry.getValue().sort();
+            for (int i = 0; i < entry.getValue().size; ++i){
+                locations.add(new GenomicLocation(entry.getKey(), entry.getValue().starts[i], entry.getValue().ends[i]));
+            }
+        }
+
+        return locations;
+    }
+
+    public int size(){
+        int size = 0;
+        for (Intervals intervals : contigs.values()){
+            size += intervals.size;
+        }
+        return size;
+    }
+
+}
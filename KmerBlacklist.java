@@ -0,0 +1,211 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bitset of genome k-mers occurring at least a threshold number of times on either strand. Primers whose 3' k-mer is
+ * high-copy are almost always rejected by the specificity check, so they can be dropped or tried last without
+ * aligning them first.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class KmerBlacklist {
+
+    private static final Logger log = Logger.getLogger(KmerBlacklist.class.getName());
+    private static final int MAGIC = 0x50444b42, VERSION = 2, blockSize = 1 << 20;
+    private static final HashMap<String, KmerBlacklist> blacklists = new HashMap<>();
+
+    private int kmerLength;
+    private long[] highCopy;
+    private final AtomicLong flaggedCandidates = new AtomicLong();
+
+    private KmerBlacklist(){
+    }
+
+    /**
+     * Shared blacklist for a FASTA; built on first use and rebuilt if the FASTA changes. Each k-mer length and threshold
+     * has its own file so differently configured runs do not overwrite each other.
+     */
+    public static KmerBlacklist getBlacklist(File fastaFilePath, int kmerLength, int threshold) throws IOException {
+        synchronized (blacklists){
+
+            String key = IndexFiles.getKey(fastaFilePath, kmerLength, threshold);
+            KmerBlacklist blacklist = blacklists.get(key);
+
+            if (blacklist == null){
+
+                File blacklistFilePath = new File(fastaFilePath + ".k" + kmerLength + ".t" + threshold + ".blacklist");
+
+                blacklist = load(blacklistFilePath, fastaFilePath, kmerLength, threshold);
+
+                if (blacklist == null){
+                    build(fastaFilePath, blacklistFilePath, kmerLength, threshold);
+                    blacklist = load(blacklistFilePath, fastaFilePath, kmerLength, threshold);
+                }
+
+                blacklists.put(key, blacklist);
+            }
+
+            return blacklist;
+        }
+    }
+
+    public static void build(File fastaFilePath, File blacklistFilePath, int kmerLength, int threshold) throws IOException {
+
+        if (kmerLength < 6 || kmerLength > 13){
+            throw new IllegalArgumentException("Blacklist k-mer length must be between 6 and 13");
+        }
+        if (threshold < 1 || threshold > Character.MAX_VALUE){
+            throw new IllegalArgumentException("Blacklist threshold must be between 1 and " + (int) Character.MAX_VALUE);
+        }
+
+        log.log(Level.INFO, "Building k-mer blacklist " + blacklistFilePath + "; this is done once");
+
+        MappedFastaReader reader = MappedFastaReader.getReader(fastaFilePath, new File(fastaFilePath + ".fai"));
+        int numberOfKmers = 1 << (2 * kmerLength), mask = numberOfKmers - 1;
+        char[] counts = new char[numberOfKmers]; //saturating forward strand counts
+
+        for (String contig : reader.getContigs()){
+
+            long contigLength = reader.getContigLength(contig);
+            int kmer = 0, valid = 0;
+
+            for (long blockStart = 0; blockStart < contigLength; blockStart += blockSize){
+                for (byte base : reader.getSubsequenceAt(contig, blockStart + 1, Math.min(blockStart + blockSize, contigLength))){
+
+                    int code = IndexFiles.encode(base);
+
+                    if (code < 0){
+                        valid = 0;
+                    } else {
+                        kmer = ((kmer << 2) | code) & mask;
+                        if (++valid >= kmerLength && counts[kmer] < Character.MAX_VALUE) counts[kmer]++;
+                    }
+                }
+            }
+        }
+
+        //copies on either strand; a reverse palindrome is its own reverse complement so is counted once
+        long[] highCopy = new long[(numberOfKmers + 63) / 64];
+        long flagged = 0;
+
+        for (int kmer = 0; kmer < numberOfKmers; ++kmer){
+            int reverse = reverseComplement(kmer, kmerLength);
+            if (counts[kmer] + (reverse != kmer ? counts[reverse] : 0) >= threshold){
+                highCopy[kmer >> 6] |= 1L << (kmer & 63);
+                flagged++;
+            }
+        }
+
+        File temporaryFilePath = IndexFiles.getTemporaryFile(blacklistFilePath);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFilePath)))){
+
+            IndexFiles.writeHeader(out, MAGIC, VERSION, fastaFilePath, kmerLength, threshold);
+
+            for (long word : highCopy){
+                out.writeLong(word);
+            }
+
+            out.close();
+        }
+
+        IndexFiles.replace(temporaryFilePath, blacklistFilePath);
+
+        log.log(Level.INFO, "Blacklisted " + flagged + " of " + numberOfKmers + " " + kmerLength + "-mer(s) with at least " + threshold + " copies");
+    }
+
+    /**
+     * @return null if the file is missing or was built from other inputs
+     */
+    private static KmerBlacklist load(File blacklistFilePath, File fastaFilePath, int kmerLength, int threshold) throws IOException {
+
+        if (!blacklistFilePath.exists()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(blacklistFilePath)))){
+
+            if (!IndexFiles.readHeader(in, MAGIC, VERSION, fastaFilePath, kmerLength, threshold)){
+                return null;
+            }
+
+            KmerBlacklist blacklist = new KmerBlacklist();
+            blacklist.kmerLength = kmerLength;
+            blacklist.highCopy = new long[((1 << (2 * kmerLength)) + 63) / 64];
+
+            for (int n = 0; n < blacklist.highCopy.length; ++n){
+                blacklist.highCopy[n] = in.readLong();
+            }
+
+            return blacklist;
+
+        } catch (EOFException e){
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the 3' k-mer of the primer is high-copy in the genome
+     */
+    public boolean isHighCopy(String primer){
+
+        if (primer.length() < kmerLength) return false;
+
+        int kmer = 0;
+        for (int n = primer.length() - kmerLength; n < primer.length(); ++n){
+            int code = IndexFiles.encode(primer.charAt(n));
+            if (code < 0) return false;
+            kmer = (kmer << 2) | code;
+        }
+
+        return (highCopy[kmer >> 6] & (1L << (kmer & 63))) != 0;
+    }
+
+    /**
+     * Moves or removes candidates with a high-copy 3' k-mer in either primer; order is otherwise kept
+     *
+     * @return number of candidates flagged
+     */
+    public int filter(ArrayList<PrimerPair> candidatePrimerPairs, boolean reject){
+
+        ArrayList<PrimerPair> flagged = new ArrayList<>();
+
+        for (int n = 0; n < candidatePrimerPairs.size(); ){
+            if (isHighCopy(candidatePrimerPairs.get(n).getLeftSequence()) || isHighCopy(candidatePrimerPairs.get(n).getRightSequence())){
+                flagged.add(candidatePrimerPairs.remove(n));
+            } else {
+                n++;
+            }
+        }
+
+        if (!reject){
+            candidatePrimerPairs.addAll(flagged);
+        }
+
+        flaggedCandidates.addAndGet(flagged.size());
+
+        return flagged.size();
+    }
+
+    private static int reverseComplement(int kmer, int kmerLength){
+        int reverse = 0;
+        for (int n = 0; n < kmerLength; ++n){
+            reverse = (reverse << 2) | (3 - (kmer & 3));
+            kmer >>>= 2;
+        }
+        return reverse;
+    }
+
+    public int getKmerLength() {
+        return kmerLength;
+    }
+    public long getFlaggedCandidates() {
+        return flaggedCandidates.get();
+    }
+}
@@ -0,0 +1,436 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process alternative to blastn for primer specificity. Built once from the reference FASTA into a memory-mapped
+ * file holding a position table for every k-mer seed, the genome packed at two bits per base and the runs of non-ACGT
+ * bases. Primers are placed on both strands by pigeonhole seeding: with m mismatches allowed, one of m + 1 disjoint
+ * seeds must match exactly, and each seed hit is verified base by base against the packed genome.
+ * <p>
+ * This is not a drop-in replacement for blastn-short: only full-length ungapped placements are found, where blastn also
+ * reports gapped and partial local hits, and a primer shorter than (m + 1) seeds is placed with fewer mismatches than
+ * configured. A warning is logged the first time a primer length is capped.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class KmerIndex {
+
+    private static final Logger log = Logger.getLogger(KmerIndex.class.getName());
+    private static final int MAGIC = 0x50444b4d, VERSION = 1, blockSize = 1 << 20;
+    private static final HashMap<String, KmerIndex> indexes = new HashMap<>();
+
+    private int seedLength;
+    private String[] contigNames;
+    private long[] contigStarts, contigLengths; //global 0-based offsets into the concatenated genome
+    private long[] otherStarts, otherEnds; //non-ACGT runs, half-open
+    private long offsetsStart, packedStart, positionsStart;
+    private Mapping mapping;
+    private final HashSet<Integer> cappedLengths = new HashSet<>(); //query lengths already warned about
+
+    private KmerIndex(){
+    }
+
+    /**
+     * Shared index for a FASTA; built on first use and rebuilt if the FASTA changes. Each seed length has its own file.
+     */
+    public static KmerIndex getIndex(File fastaFilePath, int seedLength) throws IOException {
+        synchronized (indexes){
+
+            String key = IndexFiles.getKey(fastaFilePath, seedLength);
+            KmerIndex index = indexes.get(key);
+
+            if (index == null){
+
+                File indexFilePath = new File(fastaFilePath + ".s" + seedLength + ".kmers");
+
+                if (!IndexFiles.isCurrent(indexFilePath, MAGIC, VERSION, fastaFilePath, seedLength)){
+                    build(fastaFilePath, indexFilePath, seedLength);
+                }
+
+                index = map(indexFilePath);
+                indexes.put(key, index);
+            }
+
+            return index;
+        }
+    }
+
+    public static void build(File fastaFilePath, File indexFilePath, int seedLength) throws IOException {
+
+        if (seedLength < 6 || seedLength > 13){
+            throw new IllegalArgumentException("Seed length must be between 6 and 13");
+        }
+
+        MappedFastaReader reader = MappedFastaReader.getReader(fastaFilePath, new File(fastaFilePath + ".fai"));
+        ArrayList<String> contigs = reader.getContigs();
+        long genomeLength = 0;
+
+        for (String contig : contigs){
+            genomeLength += reader.getContigLength(contig);
+        }
+
+        //positions are stored as unsigned ints
+        if (genomeLength > 0xFFFFFFFFL){
+            throw new IOException("Reference genome too large to index: " + fastaFilePath);
+        }
+
+        log.log(Level.INFO, "Building k-mer index " + indexFilePath + "; this is done once");
+
+        //header
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        IndexFiles.writeHeader(headerOut, MAGIC, VERSION, fastaFilePath, seedLength);
+        headerOut.writeInt(contigs.size());
+        for (String contig : contigs){
+            headerOut.writeUTF(contig);
+            headerOut.writeLong(reader.getContigLength(contig));
+        }
+        headerOut.flush();
+
+        int numberOfSeeds = 1 << (2 * seedLength);
+        long offsetsStart = align(header.size());
+        long packedStart = offsetsStart + (numberOfSeeds + 1) * 8L;
+        long positionsStart = packedStart + ((genomeLength + 31) / 32) * 8;
+
+        //pass 1: count seeds, pack genome and record non-ACGT runs
+        long[] counts = new long[numberOfSeeds];
+        ArrayList<long[]> otherRuns = new ArrayList<>();
+        File temporaryFilePath = IndexFiles.getTemporaryFile(indexFilePath);
+
+        try (RandomAccessFile file = new RandomAccessFile(temporaryFilePath, "rw")){
+
+            file.setLength(positionsStart);
+            Mapping mapping = new Mapping(file.getChannel(), FileChannel.MapMode.READ_WRITE, positionsStart);
+            long global = 0, word = 0;
+
+            for (String contig : contigs){
+
+                long contigLength = reader.getContigLength(contig);
+                int kmer = 0, valid = 0;
+
+                for (long blockStart = 0; blockStart < contigLength; blockStart += blockSize){
+
+                    byte[] block = reader.getSubsequenceAt(contig, blockStart + 1, Math.min(blockStart + blockSize, contigLength));
+
+                    for (byte base : block){
+
+                        int code = IndexFiles.encode(base);
+
+                        if (code < 0){
+                            valid = 0;
+                            long[] last = otherRuns.isEmpty() ? null : otherRuns.get(otherRuns.size() - 1);
+                            if (last != null && last[1] == global){
+                                last[1]++;
+                            } else {
+                                otherRuns.add(new long[]{global, global + 1});
+                            }
+                        } else {
+                            word |= (long) code << ((global & 31) << 1);
+                            kmer = ((kmer << 2) | code) & (numberOfSeeds - 1);
+                            if (++valid >= seedLength) counts[kmer]++;
+                        }
+
+                        if ((global & 31) == 31){
+                            mapping.putLong(packedStart + (global >> 5) * 8, word);
+                            word = 0;
+                        }
+
+                        global++;
+                    }
+                }
+            }
+
+            if ((global & 31) != 0){
+                mapping.putLong(packedStart + (global >> 5) * 8, word);
+            }
+
+            //convert counts to offsets; counts becomes the fill cursor
+            long total = 0;
+            for (int n = 0; n < numberOfSeeds; ++n){
+                mapping.putLong(offsetsStart + n * 8L, total);
+                long count = counts[n];
+                counts[n] = total;
+                total += count;
+            }
+            mapping.putLong(offsetsStart + numberOfSeeds * 8L, total);
+            mapping.force();
+
+            //pass 2: seed positions, ascending within each seed
+            long otherRunsStart = align(positionsStart + total * 4);
+            file.setLength(otherRunsStart + 8 + otherRuns.size() * 16L);
+            mapping = new Mapping(file.getChannel(), FileChannel.MapMode.READ_WRITE, file.length());
+            global = 0;
+
+            for (String contig : contigs){
+
+                long contigLength = reader.getContigLength(contig);
+                int kmer = 0, valid = 0;
+
+                for (long blockStart = 0; blockStart < contigLength; blockStart += blockSize){
+
+                    byte[] block = reader.getSubsequenceAt(contig, blockStart + 1, Math.min(blockStart + blockSize, contigLength));
+
+                    for (byte base : block){
+
+                        int code = IndexFiles.encode(base);
+
+                        if (code < 0){
+                            valid = 0;
+                        } else {
+                            kmer = ((kmer << 2) | code) & (numberOfSeeds - 1);
+                            if (++valid >= seedLength){
+                                mapping.putInt(positionsStart + counts[kmer]++ * 4, (int) (global - seedLength + 1));
+                            }
+                        }
+
+                        global++;
+                    }
+                }
+            }
+
+            //non-ACGT runs
+            mapping.putInt(otherRunsStart, otherRuns.size());
+            for (int n = 0; n < otherRuns.size(); ++n){
+                mapping.putLong(otherRunsStart + 8 + n * 16L, otherRuns.get(n)[0]);
+                mapping.putLong(otherRunsStart + 16 + n * 16L, otherRuns.get(n)[1]);
+            }
+
+            mapping.force();
+            file.seek(0);
+            file.write(header.toByteArray());
+
+            log.log(Level.INFO, "Indexed " + total + " seed(s) over " + genomeLength + " bases");
+        }
+
+        IndexFiles.replace(temporaryFilePath, indexFilePath);
+
+    }
+
+    private static KmerIndex map(File indexFilePath) throws IOException {
+
+        KmerIndex index = new KmerIndex();
+
+        try (FileChannel channel = FileChannel.open(indexFilePath.toPath(), StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFilePath)))){
+
+            in.skipBytes(IndexFiles.getHeaderLength(0));
+            index.seedLength = in.readInt();
+
+            int numberOfContigs = in.readInt();
+            index.contigNames = new String[numberOfContigs];
+            index.contigStarts = new long[numberOfContigs];
+            index.contigLengths = new long[numberOfContigs];
+
+            int headerLength = IndexFiles.getHeaderLength(1) + 4;
+            long genomeLength = 0;
+
+            for (int n = 0; n < numberOfContigs; ++n){
+                index.contigNames[n] = in.readUTF();
+                index.contigLengths[n] = in.readLong();
+                index.contigStarts[n] = genomeLength;
+                genomeLength += index.contigLengths[n];
+                headerLength += 2 + index.contigNames[n].getBytes("UTF-8").length + 8;
+            }
+
+            int numberOfSeeds = 1 << (2 * index.seedLength);
+            index.offsetsStart = align(headerLength);
+            index.packedStart = index.offsetsStart + (numberOfSeeds + 1) * 8L;
+            index.positionsStart = index.packedStart + ((genomeLength + 31) / 32) * 8;
+            index.mapping = new Mapping(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+
+            long otherRunsStart = align(index.positionsStart + index.mapping.getLong(index.offsetsStart + numberOfSeeds * 8L) * 4);
+            int numberOfOtherRuns = index.mapping.getInt(otherRunsStart);
+            index.otherStarts = new long[numberOfOtherRuns];
+            index.otherEnds = new long[numberOfOtherRuns];
+
+            for (int n = 0; n < numberOfOtherRuns; ++n){
+                index.otherStarts[n] = index.mapping.getLong(otherRunsStart + 8 + n * 16L);
+                index.otherEnds[n] = index.mapping.getLong(otherRunsStart + 16 + n * 16L);
+            }
+        }
+
+        log.log(Level.INFO, "Mapped k-mer index " + indexFilePath);
+
+        return index;
+    }
+
+    /**
+     * Places each query on both strands with up to maxMismatches mismatches. Hits are returned as blastn would report
+     * them: 1-based, with start greater than end on the reverse strand. A hit is exact if its longest mismatch-free run
+     * covers at least minSimilarity of the query.
+     */
+    public HashMap<String, AlignmentResult> align(Collection<String> queries, int maxMismatches, int maxExactMatches, double minSimilarity){
+
+        HashMap<String, AlignmentResult> results = new HashMap<>();
+
+        for (String query : queries){
+            if (!results.containsKey(query)){
+                results.put(query, align(query, maxMismatches, maxExactMatches, minSimilarity));
+            }
+        }
+
+        return results;
+    }
+
+    private AlignmentResult align(String query, int maxMismatches, int maxExactMatches, double minSimilarity){
+
+        int length = query.length();
+        int[] exactAlignments = {0};
+        ArrayList<GenomicLocation> alignments = new ArrayList<>();
+
+        //pigeonhole needs one full seed per mismatch plus one
+        int mismatches = Math.min(maxMismatches, length / seedLength - 1);
+
+        if (mismatches < 0){
+            log.log(Level.WARNING, "Query " + query + " is shorter than the seed length " + seedLength);
+            return new AlignmentResult(query, alignments, 0, maxExactMatches);
+        }
+
+        if (mismatches < maxMismatches){
+            synchronized (cappedLengths){
+                if (cappedLengths.add(length)){
+                    log.log(Level.WARNING, length + "-nt primers are placed with at most " + mismatches + " of " + maxMismatches +
+                            " mismatch(es) using " + seedLength + "-nt seeds; lower kmerSeedLength to " + (length / (maxMismatches + 1)) + " to allow all");
+                }
+            }
+        }
+
+        int[] forward = new int[length], reverse = new int[length];
+        for (int n = 0; n < length; ++n){
+            forward[n] = IndexFiles.encode(query.charAt(n));
+            reverse[length - n - 1] = forward[n] < 0 ? -1 : 3 - forward[n];
+        }
+
+        if (place(forward, false, mismatches, minSimilarity, maxExactMatches, alignments, exactAlignments)){
+            place(reverse, true, mismatches, minSimilarity, maxExactMatches, alignments, exactAlignments);
+        }
+
+        return new AlignmentResult(query, alignments, exactAlignments[0], maxExactMatches);
+    }
+
+    /**
+     * @return false once the maximum number of exact matches is exceeded
+     */
+    private boolean place(int[] query, boolean reverseStrand, int mismatches, double minSimilarity, int maxExactMatches, ArrayList<GenomicLocation> alignments, int[] exactAlignments){
+
+        int length = query.length;
+        int segmentLength = length / (mismatches + 1);
+        HashSet<Long> verified = new HashSet<>();
+
+        for (int segment = 0; segment <= mismatches; ++segment){
+
+            int seedOffset = segment * segmentLength, kmer = 0;
+            boolean validSeed = true;
+
+            for (int n = seedOffset; n < seedOffset + seedLength; ++n){
+                if (query[n] < 0) validSeed = false;
+                kmer = (kmer << 2) | (query[n] & 3);
+            }
+
+            if (!validSeed) continue;
+
+            long from = mapping.getLong(offsetsStart + kmer * 8L), to = mapping.getLong(offsetsStart + (kmer + 1) * 8L);
+
+            for (long n = from; n < to; ++n){
+
+                long start = (mapping.getInt(positionsStart + n * 4) & 0xFFFFFFFFL) - seedOffset;
+
+                if (start < 0 || !verified.add(start)) continue;
+
+                int contig = findContig(start);
+                if (start + length > contigStarts[contig] + contigLengths[contig] || overlapsOtherRun(start, start + length)) continue;
+
+                //count mismatches and longest exact run
+                int mismatched = 0, run = 0, longestRun = 0;
+                for (int i = 0; i < length && mismatched <= mismatches; ++i){
+                    if (query[i] == getBase(start + i)){
+                        longestRun = Math.max(longestRun, ++run);
+                    } else {
+                        mismatched++;
+                        run = 0;
+                    }
+                }
+
+                if (mismatched > mismatches) continue;
+
+                int alignmentStart = (int) (start - contigStarts[contig]) + 1, alignmentEnd = alignmentStart + length - 1;
+                alignments.add(reverseStrand ? new GenomicLocation(contigNames[contig], alignmentEnd, alignmentStart) : new GenomicLocation(contigNames[contig], alignmentStart, alignmentEnd));
+
+                if ((double) longestRun / length >= minSimilarity && ++exactAlignments[0] > maxExactMatches){
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private int getBase(long position){
+        return (int) (mapping.getLong(packedStart + (position >> 5) * 8) >>> ((position & 31) << 1)) & 3;
+    }
+
+    private int findContig(long position){
+        int contig = Arrays.binarySearch(contigStarts, position);
+        if (contig < 0) contig = -contig - 2;
+        //skip empty contigs sharing a start
+        while (contig + 1 < contigStarts.length && contigStarts[contig + 1] == position) contig++;
+        return contig;
+    }
+
+    private boolean overlapsOtherRun(long start, long end){
+        int run = Arrays.binarySearch(otherStarts, start);
+        if (run < 0) run = -run - 2;
+        return (run >= 0 && otherEnds[run] > start) || (run + 1 < otherStarts.length && otherStarts[run + 1] < end);
+    }
+
+    private static long align(long offset){
+        return (offset + 7) & ~7L;
+    }
+
+    public int getSeedLength() {
+        return seedLength;
+    }
+
+    /**
+     * File mapped in 1GB chunks; values are 8-byte aligned so never straddle a chunk
+     */
+    private static class Mapping {
+
+        private static final int chunkSize = 1 << 30;
+        private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+
+        private Mapping(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+            for (long position = 0; position < size; position += chunkSize){
+                chunks.add(channel.map(mode, position, Math.min(chunkSize, size - position)));
+            }
+        }
+
+        private long getLong(long offset){
+            return chunks.get((int) (offset / chunkSize)).getLong((int) (offset % chunkSize));
+        }
+        private int getInt(long offset){
+            return chunks.get((int) (offset / chunkSize)).getInt((int) (offset % chunkSize));
+        }
+        private void putLong(long offset, long value){
+            chunks.get((int) (offset / chunkSize)).putLong((int) (offset % chunkSize), value);
+        }
+        private void putInt(long offset, int value){
+            chunks.get((int) (offset / chunkSize)).putInt((int) (offset % chunkSize), value);
+        }
+        private void force(){
+            for (MappedByteBuffer chunk : chunks){
+                chunk.force();
+            }
+        }
+    }
+
+}
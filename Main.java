@@ -4,7 +4,8 @@ import com.google.gson.Gson;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,16 +23,25 @@ public class Main {
 
     public static void main(String[] args) {
 
-        if (args.length != 5) {
+        boolean batch = args.length == 4 && args[0].toLowerCase().equals("batch");
+        boolean server = args.length == 3 && args[0].toLowerCase().equals("server");
+        boolean pool = args.length == 4 && args[0].toLowerCase().equals("pool");
+        boolean index = args.length == 2 && args[0].toLowerCase().equals("index");
+
+        if (args.length != 5 && !batch && !server && !pool && !index) {
             System.err.println("Usage: <Chrom> <Start> <Stop> <ConfigFilePath> <OutputType>");
-            System.err.println("Coordinates should be 1-based");
-            System.err.println("OutputType is JSON or BED");
+            System.err.println("       batch <RegionsFile> <ConfigFilePath> <OutputType>");
+            System.err.println("       server <ConfigFilePath> <Port>");
+            System.err.println("       pool <RegionsFile> <ConfigFilePath> <OutputType>");
+            System.err.println("       index <ConfigFilePath>");
+            System.err.println("Coordinates should be 1-based; regions files ending .bed are read as 0-based");
+            System.err.println("OutputType is JSON, NDJSON or BED; NDJSON and BED are written as each target is designed");
             System.exit(1);
         }
 
         log.log(Level.INFO, "Primer designer v" + version);
 
-        Configuration configuration = new Configuration(new File(args[3]));
+        Configuration configuration = new Configuration(new File(batch || pool ? args[2] : server || index ? args[1] : args[3]));
         try {
             configuration.parseConfigurationFile();
         } catch (IOException e){
@@ -43,158 +53,272 @@ public class Main {
             log.log(Level.INFO, "Debugging mode");
         }
 
-        StringBuilder bedOutput = new StringBuilder();
-        Output output = new Output();
-        Gson gson = new Gson();
-        GenomicLocation suppliedROI = new GenomicLocation(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
-        suppliedROI.convertTo0Based();
-        ArrayList<GenomicLocation> overlappingExonicRegionsOfInterest = new ArrayList<>();
-        HashSet<GenomicLocation> mergedOverlappingExonicRegionsOfInterest = new HashSet<>();
-        ArrayList<GenomicLocation> splitFinalRegionsOfInterest = new ArrayList<>();
+        //pools are assembled from ranked alternatives; set before any design cache fingerprint is taken
+        if (pool){
+            configuration.enablePoolMode();
+            if (configuration.getPoolAlternatives() == 0){
+                log.log(Level.WARNING, "poolAlternatives is 0; pools can only be assembled from each target's best primer pair");
+            }
+        }
+
+        if (server){
+            startServer(configuration, Integer.parseInt(args[2]));
+            return;
+        }
 
-        log.log(Level.INFO, "Designing primer pair to cover supplied region of interest " + suppliedROI.getContig() + ":" + suppliedROI.getStartPosition() + "-" + suppliedROI.getEndPosition());
+        if (index){
+            buildIndexes(configuration);
+            return;
+        }
 
-        //find overlapping exons with ROI
-        for (String feature : BedtoolsWrapper.getOverlappingFeatures(configuration.getBedtoolsFilePath(), configuration.getExonsBed(), suppliedROI)){
+        String outputType = (batch || pool ? args[3] : args[4]).toUpperCase();
 
-            String[] fields = feature.split("\t");
-            overlappingExonicRegionsOfInterest.add(new GenomicLocation(fields[3], Integer.parseInt(fields[4]), Integer.parseInt(fields[5])));
+        if (pool){
+            assemblePools(configuration, new File(args[1]), outputType);
+            return;
+        }
 
-            log.log(Level.INFO, "Target overlaps with exon " + fields[3] + ":" + fields[4] + "-" + fields[5]);
+        if (!configuration.isDebug() && (outputType.equals("NDJSON") || outputType.equals("BED"))){
+            streamDesigns(configuration, args, batch, outputType);
+            return;
         }
 
-        //loop over exonic overlaps and merge
-        if (overlappingExonicRegionsOfInterest.size() > 0){
+        ArrayList<GenomicLocation> suppliedROIs = new ArrayList<>();
+        ArrayList<ArrayList<PrimerPair>> primerPairs;
+        ArrayList<DesignMetrics> metrics = new ArrayList<>();
 
-            //merge exonic overlaps
-            for (GenomicLocation mergedOverlappingExonicROI : BedtoolsWrapper.mergeOverlappingFeatures(configuration.getBedtoolsFilePath(), overlappingExonicRegionsOfInterest)) {
+        if (batch){
+            try {
+                suppliedROIs = BatchDesigner.readRegions(new File(args[1]));
+            } catch (IOException e){
+                log.log(Level.SEVERE, "Could not read regions file: " + e.getMessage());
+                System.exit(-1);
+            }
+        } else {
+            suppliedROIs.add(new GenomicLocation(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+        }
 
-                mergedOverlappingExonicRegionsOfInterest.add(mergedOverlappingExonicROI);
+        //design primers; configuration and readers are shared between targets
+        try (PrimerDesigner primerDesigner = new PrimerDesigner(configuration)){
 
-                log.log(Level.INFO, "Exonic target(s) were merged into " + mergedOverlappingExonicROI.getContig() + ":" + mergedOverlappingExonicROI.getStartPosition() + "-" + mergedOverlappingExonicROI.getEndPosition());
+            BatchDesigner batchDesigner = new BatchDesigner(configuration, primerDesigner);
+            primerPairs = batchDesigner.designPrimers(suppliedROIs, metrics);
+
+            if (batch){
+                batchDesigner.writeSummary(BatchDesigner.getSummary(metrics));
             }
 
-        } else {
-            log.log(Level.INFO, "Target does not overlap with any supplied exons");
-            mergedOverlappingExonicRegionsOfInterest.add(suppliedROI); //could not find overlapping exons
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not load design resources: " + e.getMessage());
+            System.exit(-1);
+            return;
         }
 
-        //loop over final ROIs and split into amplifible amplicons
-        //todo
-        for (GenomicLocation finalROI : mergedOverlappingExonicRegionsOfInterest){
+        //write primers to stout
+        if (!configuration.isDebug()){
 
-            /*split target
-            if ((finalROI.getEndPosition() - finalROI.getStartPosition()) + 1 > Configuration.getMaxTargetLength()){
+            if (outputType.equals("JSON")){
+                System.out.print(batch ? DesignWriter.toJsonArray(suppliedROIs, primerPairs, metrics) : DesignWriter.toJson(suppliedROIs.get(0), primerPairs.get(0), metrics.get(0)));
+            }
 
-                int numberOfWindows = (((finalROI.getEndPosition() - finalROI.getStartPosition()) + 1) / Configuration.getMaxTargetLength()) + 1;
+        }
 
-                log.log(Level.WARNING, "Target " + finalROI.getChromosome() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition() + " exceeds max target length. Splitting into " + numberOfWindows + " fragments");
+    }
 
-                for (String line : BedtoolsWrapper.splitRegionIntoWindows(Configuration.getBedtoolsFilePath(), finalROI, numberOfWindows)){
-                    String[] fields = line.split("\t");
-                    splitFinalRegionsOfInterest.add(new GenomicLocation(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
-                }
+    /**
+     * Designs targets as they are read and writes each to stdout, or the configured output file, as soon as it is done
+     */
+    private static void streamDesigns(Configuration configuration, String[] args, boolean batch, String outputType){
 
-                splitFinalRegionsOfInterest.add(suppliedROI);
+        Writer output;
 
-            } else {
-                splitFinalRegionsOfInterest.add(finalROI);
-            }*/
+        try {
+            output = new BufferedWriter(configuration.getOutputFile() != null ? new FileWriter(configuration.getOutputFile()) : new OutputStreamWriter(System.out));
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not open output file: " + e.getMessage());
+            System.exit(-1);
+            return;
+        }
+
+        try (BufferedReader regionsReader = batch ? new BufferedReader(new FileReader(args[1])) : null;
+             PrimerDesigner primerDesigner = new PrimerDesigner(configuration);
+             DesignWriter designWriter = new DesignWriter(output, outputType)){
 
-            splitFinalRegionsOfInterest.add(finalROI);
+            Iterator<GenomicLocation> regions = batch ?
+                    BatchDesigner.iterateRegions(regionsReader, args[1].toLowerCase().endsWith(".bed")) :
+                    Collections.singletonList(new GenomicLocation(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]))).iterator();
+
+            BatchDesigner batchDesigner = new BatchDesigner(configuration, primerDesigner);
+            DesignMetrics summary = batchDesigner.designPrimers(regions, designWriter);
+
+            if (batch){
+                batchDesigner.writeSummary(summary);
+            }
+
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not design primers: " + e.getMessage());
+            System.exit(-1);
         }
 
-        //exonic and split ROIs
-        for (GenomicLocation finalROI : splitFinalRegionsOfInterest) {
+    }
 
-            //convert to 1-based
-            finalROI.convertTo1Based();
+    /**
+     * Designs every target then groups the amplicons into multiplex pools free of 3' cross-dimers
+     */
+    private static void assemblePools(Configuration configuration, File regionsFile, String outputType){
 
-            log.log(Level.INFO, "Designing amplicon for target " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition());
+        ArrayList<PrimerPair> amplicons = new ArrayList<>();
+        ArrayList<ArrayList<PrimerPair>> pools;
 
-            //get sequence
-            ReferenceSequence sequence = new ReferenceSequence(finalROI, configuration.getReferenceGenomeFasta(), new File(configuration.getReferenceGenomeFasta() + ".fai"), configuration.getPadding());
-            sequence.populateReferenceSequence();
+        try (PrimerDesigner primerDesigner = new PrimerDesigner(configuration)){
 
-            if (configuration.isDebug()) {
-                log.log(Level.INFO, "Reference: " + sequence.getReferenceSequence());
-            }
+            BatchDesigner batchDesigner = new BatchDesigner(configuration, primerDesigner);
+            ArrayList<DesignMetrics> metrics = new ArrayList<>();
 
-            if (sequence.isRefAllNSites()) {
-                log.log(Level.WARNING, "Could not design primer for target containing all N-sites: " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition());
-                break;
+            for (ArrayList<PrimerPair> targetPrimerPairs : batchDesigner.designPrimers(BatchDesigner.readRegions(regionsFile), metrics)){
+                amplicons.addAll(targetPrimerPairs);
             }
 
-            //design primers
-            Primer3 primer3 = new Primer3(
-                    sequence,
-                    finalROI,
-                    configuration
-            );
-            primer3.setExcludedRegions(configuration.getExcludedVariants(), configuration.getMaxIndelLength());
-            primer3.callPrimer3();
-
-            if (configuration.isDebug()){
-                try (PrintWriter p = new PrintWriter(finalROI.getContig() + "_" + finalROI.getStartPosition() + "_" + finalROI.getEndPosition() + "_primer3out.txt")) {
-                    for (String line : primer3.getPrimer3Output()) {
-                        p.println(line);
-                    }
-                    p.close();
-                } catch (IOException e) {
-                    log.log(Level.SEVERE, e.getMessage());
-                }
+            batchDesigner.writeSummary(BatchDesigner.getSummary(metrics));
+
+            pools = new PoolAssembler(configuration).assemble(amplicons);
+
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not design primers: " + e.getMessage());
+            System.exit(-1);
+            return;
+        } catch (InterruptedException e){
+            log.log(Level.SEVERE, "Pool assembly was interrupted");
+            System.exit(-1);
+            return;
+        }
+
+        if (!configuration.isDebug()){
+            if (outputType.equals("JSON")){
+                System.out.print(toJsonPools(pools));
+            } else if (outputType.equals("BED")){
+                System.out.print(toBedPools(pools));
             }
+        }
+
+    }
 
-            if (!configuration.isDebug()){
-
-                primer3.splitPrimer3Output();
-                primer3.checkPrimerAlignments();
-
-                suppliedROI.convertTo1Based();
-
-                for (PrimerPair primerPair : primer3.getFilteredPrimerPairs()){
-
-                    //print primers to JSON
-                    output.setChromosome(primerPair.getAmplifiableRegion().getContig());
-                    output.setStartPosition(primerPair.getAmplifiableRegion().getStartPosition());
-                    output.setEndPosition(primerPair.getAmplifiableRegion().getEndPosition());
-                    output.setLeftSequence(primerPair.getLeftSequence());
-                    output.setRightSequence(primerPair.getRightSequence());
-                    output.setLeftTm(primerPair.getLeftTm());
-                    output.setRightTm(primerPair.getRightTm());
-
-                    //print primers to bed
-                    bedOutput.append(suppliedROI.getContig());
-                    bedOutput.append("\t");
-                    bedOutput.append((primerPair.getAmplifiableRegion().getStartPosition() - primerPair.getLeftSequence().length()) - 1);
-                    bedOutput.append("\t");
-                    bedOutput.append((primerPair.getAmplifiableRegion().getEndPosition() + primerPair.getRightSequence().length()));
-                    bedOutput.append("\tamplicon\t");
-                    bedOutput.append(Math.round(primerPair.getPairPenalty()));
-                    bedOutput.append("\t");
-                    if (primerPair.getAmplifiableRegion().getStrand() == 1) bedOutput.append("+\t"); else bedOutput.append("-\t");
-                    bedOutput.append((primerPair.getAmplifiableRegion().getStartPosition() - 1));
-                    bedOutput.append("\t");
-                    bedOutput.append(primerPair.getAmplifiableRegion().getEndPosition());
-                    bedOutput.append("\n");
-
-                }
+    /**
+     * Builds the indexes the configuration uses, so a first design or server start does not wait while a large VCF or
+     * reference is read
+     */
+    private static void buildIndexes(Configuration configuration){
 
+        try {
+
+            IntervalIndex.getIndex(configuration.getExonsBed());
+            VariantIndex.getIndex(configuration.getExcludedVariants(), configuration.getMaxIndelLength());
+
+            if (configuration.getSpecificityBackend().equals("kmer")){
+                KmerIndex.getIndex(configuration.getReferenceGenomeFasta(), configuration.getKmerSeedLength());
+            }
+            if (!configuration.getKmerBlacklistMode().equals("off")){
+                KmerBlacklist.getBlacklist(configuration.getReferenceGenomeFasta(), configuration.getKmerBlacklistLength(), configuration.getKmerBlacklistThreshold());
             }
 
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not build indexes: " + e.getMessage());
+            System.exit(-1);
         }
 
-        //write primers to stout
-        if (!configuration.isDebug()){
+        log.log(Level.INFO, "Indexes are up to date");
+    }
+
+    /**
+     * Runs the design service until the JVM is stopped
+     */
+    private static void startServer(Configuration configuration, int port){
+
+        if (configuration.isDebug()){
+            log.log(Level.SEVERE, "Debugging mode is not available for the design service");
+            System.exit(1);
+        }
+
+        final PrimerDesigner primerDesigner;
+        final DesignServer designServer;
+
+        try {
+            primerDesigner = new PrimerDesigner(configuration);
+            designServer = new DesignServer(configuration, primerDesigner);
+            designServer.start(port);
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not start design service: " + e.getMessage());
+            System.exit(-1);
+            return;
+        }
+
+        //release processes and caches on shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                designServer.stop();
+                primerDesigner.close();
+            }
+        }));
+
+    }
+
+    static Output toOutput(PrimerPair primerPair){
+
+        Output output = new Output();
+
+        output.setChromosome(primerPair.getAmplifiableRegion().getContig());
+        output.setStartPosition(primerPair.getAmplifiableRegion().getStartPosition());
+        output.setEndPosition(primerPair.getAmplifiableRegion().getEndPosition());
+        output.setLeftSequence(primerPair.getLeftSequence());
+        output.setRightSequence(primerPair.getRightSequence());
+        output.setLeftTm(primerPair.getLeftTm());
+        output.setRightTm(primerPair.getRightTm());
 
-            if (args[4].toUpperCase().equals("JSON")){
-                System.out.print(gson.toJson(output));
-            } else if (args[4].toUpperCase().equals("BED")){
-                System.out.println(bedOutput.toString());
+        return output;
+    }
+
+    /**
+     * Pools JSON; an array of primer pair arrays, one per pool
+     */
+    static String toJsonPools(ArrayList<ArrayList<PrimerPair>> pools){
+
+        ArrayList<ArrayList<Output>> outputs = new ArrayList<>();
+
+        for (ArrayList<PrimerPair> pool : pools){
+            ArrayList<Output> poolOutputs = new ArrayList<>();
+            for (PrimerPair primerPair : pool){
+                poolOutputs.add(toOutput(primerPair));
             }
+            outputs.add(poolOutputs);
+        }
+
+        return new Gson().toJson(outputs);
+    }
+
+    /**
+     * Pools BED; amplicons are named by pool number
+     */
+    static String toBedPools(ArrayList<ArrayList<PrimerPair>> pools){
+
+        StringBuilder bedOutput = new StringBuilder();
+
+        for (int n = 0; n < pools.size(); ++n){
+            DesignWriter.appendBed(bedOutput, "pool" + (n + 1), pools.get(n));
+        }
+
+        return bedOutput.toString();
+    }
+
+    static String toBed(ArrayList<GenomicLocation> suppliedROIs, ArrayList<ArrayList<PrimerPair>> primerPairs){
+
+        StringBuilder bedOutput = new StringBuilder();
 
+        for (int n = 0; n < primerPairs.size(); ++n){
+            DesignWriter.appendBed(bedOutput, suppliedROIs.get(n), primerPairs.get(n));
         }
 
+        return bedOutput.toString();
     }
 
 }
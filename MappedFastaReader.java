@@ -0,0 +1,157 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide, thread-safe reader for samtools-indexed FASTA files. The file is memory-mapped once and subsequences
+ * are copied directly from the mapped buffers, skipping line terminators.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class MappedFastaReader {
+
+    private static final Logger log = Logger.getLogger(MappedFastaReader.class.getName());
+    private static final int chunkSize = 1 << 30;
+    private static final HashMap<File, MappedFastaReader> readers = new HashMap<>();
+
+    private final LinkedHashMap<String, IndexEntry> index = new LinkedHashMap<>();
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+    private File fastaFilePath;
+
+    private static class IndexEntry {
+        private long length, offset;
+        private int lineBases, lineWidth;
+    }
+
+    private MappedFastaReader(File fastaFilePath, File indexFilePath) throws IOException {
+
+        this.fastaFilePath = fastaFilePath;
+
+        String line;
+
+        //read fasta index
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFilePath))){
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.equals("")) continue;
+
+                String[] fields = line.split("\t");
+                IndexEntry entry = new IndexEntry();
+
+                entry.length = Long.parseLong(fields[1]);
+                entry.offset = Long.parseLong(fields[2]);
+                entry.lineBases = Integer.parseInt(fields[3]);
+                entry.lineWidth = Integer.parseInt(fields[4]);
+
+                index.put(fields[0], entry);
+            }
+
+            reader.close();
+        }
+
+        //map fasta in chunks; a single buffer cannot exceed 2GB
+        try (FileChannel channel = FileChannel.open(fastaFilePath.toPath(), StandardOpenOption.READ)){
+            for (long position = 0; position < channel.size(); position += chunkSize){
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, channel.size() - position)));
+            }
+        }
+
+        log.log(Level.INFO, "Mapped reference genome " + fastaFilePath + " (" + index.size() + " contigs)");
+    }
+
+    /**
+     * Shared reader for a FASTA file; the index is parsed and the file mapped once per process
+     */
+    public static MappedFastaReader getReader(File fastaFilePath, File indexFilePath) throws IOException {
+        synchronized (readers){
+
+            MappedFastaReader reader = readers.get(fastaFilePath);
+
+            if (reader == null){
+                reader = new MappedFastaReader(fastaFilePath, indexFilePath);
+                readers.put(fastaFilePath, reader);
+            }
+
+            return reader;
+        }
+    }
+
+    /**
+     * @return bases between 1-based inclusive coordinates
+     */
+    public byte[] getSubsequenceAt(String contig, long start, long stop){
+
+        IndexEntry entry = index.get(contig);
+
+        if (entry == null){
+            throw new IllegalArgumentException("Unable to find entry for contig: " + contig);
+        }
+        if (start < 1 || stop > entry.length || stop < start - 1){
+            throw new IllegalArgumentException("Malformed query; start: " + start + ", stop: " + stop + ", contig length: " + entry.length);
+        }
+
+        byte[] bases = new byte[(int) (stop - start + 1)];
+        long position = start - 1; //0-based offset into contig
+        int copied = 0;
+
+        //copy a line at a time
+        while (copied < bases.length){
+
+            long line = position / entry.lineBases;
+            int column = (int) (position % entry.lineBases);
+            int length = Math.min(entry.lineBases - column, bases.length - copied);
+
+            copy(entry.offset + line * entry.lineWidth + column, bases, copied, length);
+
+            copied += length;
+            position += length;
+        }
+
+        return bases;
+    }
+
+    private void copy(long fileOffset, byte[] destination, int destinationOffset, int length){
+
+        while (length > 0){
+
+            int chunk = (int) (fileOffset / chunkSize);
+            int chunkOffset = (int) (fileOffset % chunkSize);
+            int chunkLength = Math.min(length, chunks.get(chunk).capacity() - chunkOffset);
+
+            //duplicate so concurrent readers do not share a position
+            ByteBuffer buffer = chunks.get(chunk).duplicate();
+            buffer.position(chunkOffset);
+            buffer.get(destination, destinationOffset, chunkLength);
+
+            fileOffset += chunkLength;
+            destinationOffset += chunkLength;
+            length -= chunkLength;
+        }
+
+    }
+
+    public boolean hasContig(String contig){
+        return index.containsKey(contig);
+    }
+    public long getContigLength(String contig){
+        return index.get(contig).length;
+    }
+    public ArrayList<String> getContigs(){
+        return new ArrayList<>(index.keySet());
+    }
+    public File getFastaFilePath() {
+        return fastaFilePath;
+    }
+}
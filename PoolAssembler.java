@@ -0,0 +1,306 @@
+package nhs.genetics.cardiff;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Assembles designed amplicons into multiplex pools. Every primer is screened against every other for 3' cross-dimers:
+ * a primer's terminal bases must pair with a stretch of the other primer for a dimer to extend, so partners are found
+ * through a 3' seed k-mer lookup and only those are scored, by nearest-neighbour free energy of the contiguous duplex
+ * anchored at the 3' end. Configured primer tails are included. Amplicons are then placed in input order into the first
+ * pool where one of their options, tried in rank order, neither dimerises with nor overlaps the amplicons already
+ * there.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class PoolAssembler {
+
+    private static final Logger log = Logger.getLogger(PoolAssembler.class.getName());
+    private static final int seedLength = 4; //shorter duplexes are not screened; none can reach the default threshold
+
+    private Configuration configuration;
+    private Thermodynamics thermodynamics;
+    private byte[][] primers;
+    private BitSet[] dimers; //dimers[a] holds primers whose sequence the 3' end of a pairs with
+    private int[] seedOffsets, seedPrimers, seedPositions; //primer positions bucketed by seed k-mer
+    private long screenedPairs = 0;
+
+    public PoolAssembler(Configuration configuration){
+        this.configuration = configuration;
+        this.thermodynamics = Thermodynamics.getThermodynamics(configuration);
+    }
+
+    /**
+     * @param amplicons designed primer pairs, each with its ranked alternatives
+     * @return pools of chosen primer pairs
+     */
+    public ArrayList<ArrayList<PrimerPair>> assemble(List<PrimerPair> amplicons) throws InterruptedException {
+
+        //number distinct primer sequences
+        HashMap<String, Integer> primerIds = new HashMap<>();
+        ArrayList<String> sequences = new ArrayList<>();
+        ArrayList<ArrayList<PrimerPair>> options = new ArrayList<>();
+
+        for (PrimerPair amplicon : amplicons){
+
+            ArrayList<PrimerPair> ampliconOptions = new ArrayList<>();
+            ampliconOptions.add(amplicon);
+            ampliconOptions.addAll(amplicon.getAlternatives());
+            options.add(ampliconOptions);
+
+            for (PrimerPair option : ampliconOptions){
+                for (String sequence : new String[]{option.getLeftSequence(), option.getRightSequence()}){
+                    if (!primerIds.containsKey(sequence)){
+                        primerIds.put(sequence, sequences.size());
+                        sequences.add(sequence);
+                    }
+                }
+            }
+        }
+
+        log.log(Level.INFO, "Screening " + sequences.size() + " primer(s) from " + amplicons.size() + " amplicon(s) for 3' cross-dimers");
+
+        screen(sequences, getTails(sequences.size(), primerIds, options));
+
+        log.log(Level.INFO, "Scored " + screenedPairs + " seeded primer pair(s)");
+
+        //first fit in input order
+        ArrayList<ArrayList<PrimerPair>> pools = new ArrayList<>();
+        ArrayList<ArrayList<int[]>> poolPrimers = new ArrayList<>();
+        int alternativesUsed = 0;
+
+        for (ArrayList<PrimerPair> ampliconOptions : options){
+
+            boolean placed = false;
+
+            for (int p = 0; p < pools.size() && !placed; ++p){
+
+                if (configuration.getMaxPoolSize() > 0 && pools.get(p).size() >= configuration.getMaxPoolSize()){
+                    continue;
+                }
+
+                for (int o = 0; o < ampliconOptions.size(); ++o){
+
+                    PrimerPair option = ampliconOptions.get(o);
+                    int[] ids = {primerIds.get(option.getLeftSequence()), primerIds.get(option.getRightSequence())};
+
+                    if (isCompatible(option, ids, pools.get(p), poolPrimers.get(p))){
+                        pools.get(p).add(option);
+                        poolPrimers.get(p).add(ids);
+                        if (o > 0) alternativesUsed++;
+                        placed = true;
+                        break;
+                    }
+                }
+            }
+
+            //open a new pool with the best-ranked option
+            if (!placed){
+                PrimerPair option = ampliconOptions.get(0);
+                pools.add(new ArrayList<>(Collections.singletonList(option)));
+                poolPrimers.add(new ArrayList<>(Collections.singletonList(new int[]{primerIds.get(option.getLeftSequence()), primerIds.get(option.getRightSequence())})));
+            }
+        }
+
+        log.log(Level.INFO, "Assembled " + amplicons.size() + " amplicon(s) into " + pools.size() + " pool(s) using " + alternativesUsed + " alternative primer pair(s)");
+
+        return pools;
+    }
+
+    private boolean isCompatible(PrimerPair option, int[] ids, ArrayList<PrimerPair> pool, ArrayList<int[]> poolIds){
+
+        GenomicLocation region = option.getAmplifiableRegion();
+
+        for (int n = 0; n < pool.size(); ++n){
+
+            //overlapping amplicons would also amplify their overlap
+            GenomicLocation member = pool.get(n).getAmplifiableRegion();
+            if (region.getContig().equals(member.getContig()) &&
+                    region.getStartPosition() - option.getLeftSequence().length() <= member.getEndPosition() + pool.get(n).getRightSequence().length() &&
+                    member.getStartPosition() - pool.get(n).getLeftSequence().length() <= region.getEndPosition() + option.getRightSequence().length()){
+                return false;
+            }
+
+            for (int a : ids){
+                for (int b : poolIds.get(n)){
+                    if (dimers[a].get(b) || dimers[b].get(a)){
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tail ligated to each primer; a sequence used both as a left and a right primer keeps the left tail
+     */
+    private String[] getTails(int numberOfPrimers, HashMap<String, Integer> primerIds, ArrayList<ArrayList<PrimerPair>> options){
+
+        String[] tails = new String[numberOfPrimers];
+
+        for (ArrayList<PrimerPair> ampliconOptions : options){
+            for (PrimerPair option : ampliconOptions){
+                tails[primerIds.get(option.getLeftSequence())] = configuration.getLeftPrimerTail();
+                if (tails[primerIds.get(option.getRightSequence())] == null){
+                    tails[primerIds.get(option.getRightSequence())] = configuration.getRightPrimerTail();
+                }
+            }
+        }
+
+        return tails;
+    }
+
+    /**
+     * Fills the dimer sets for the tailed primers; primers are screened in chunks across threads
+     */
+    private void screen(ArrayList<String> sequences, String[] tails) throws InterruptedException {
+
+        primers = new byte[sequences.size()][];
+        dimers = new BitSet[sequences.size()];
+
+        for (int n = 0; n < sequences.size(); ++n){
+            primers[n] = Thermodynamics.encode(tails[n] + sequences.get(n));
+            dimers[n] = new BitSet();
+        }
+
+        indexSeeds();
+
+        //split primers into chunks across threads
+        final int threads = configuration.getThreads(), chunk = (primers.length + threads - 1) / threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Long>> futures = new ArrayList<>();
+
+        try {
+
+            for (int from = 0; from < primers.length; from += chunk){
+                final int start = from, end = Math.min(from + chunk, primers.length);
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        long scored = 0;
+                        for (int a = start; a < end; ++a){
+                            scored += screenPrimer(a);
+                        }
+                        return scored;
+                    }
+                }));
+            }
+
+            for (Future<Long> future : futures){
+                screenedPairs += future.get();
+            }
+
+        } catch (ExecutionException e){
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Scores every seeded partner of one primer's 3' end; only this primer's dimer set is written
+     *
+     * @return number of seed hits scored
+     */
+    private long screenPrimer(int a){
+
+        byte[] left = primers[a];
+        int seed = getReverseComplementSeed(left), scored = 0;
+
+        if (seed < 0){
+            return 0;
+        }
+
+        double threshold = configuration.getPoolMaxDimerDeltaG();
+
+        for (int h = seedOffsets[seed]; h < seedOffsets[seed + 1]; ++h){
+
+            int b = seedPrimers[h];
+
+            if (b == a || dimers[a].get(b)){
+                continue;
+            }
+
+            scored++;
+
+            if (thermodynamics.getAnchoredDeltaG(left, primers[b], seedPositions[h]) <= threshold){
+                dimers[a].set(b);
+            }
+        }
+
+        return scored;
+    }
+
+    /**
+     * Buckets every seed position of every primer by k-mer
+     */
+    private void indexSeeds(){
+
+        int buckets = 1 << (2 * seedLength);
+        seedOffsets = new int[buckets + 1];
+
+        for (byte[] primer : primers){
+            for (int q = 0; q + seedLength <= primer.length; ++q){
+                int seed = getSeed(primer, q);
+                if (seed >= 0) seedOffsets[seed + 1]++;
+            }
+        }
+
+        for (int n = 0; n < buckets; ++n){
+            seedOffsets[n + 1] += seedOffsets[n];
+        }
+
+        int[] fill = Arrays.copyOf(seedOffsets, buckets);
+        seedPrimers = new int[seedOffsets[buckets]];
+        seedPositions = new int[seedOffsets[buckets]];
+
+        for (int b = 0; b < primers.length; ++b){
+            for (int q = 0; q + seedLength <= primers[b].length; ++q){
+                int seed = getSeed(primers[b], q);
+                if (seed >= 0){
+                    seedPrimers[fill[seed]] = b;
+                    seedPositions[fill[seed]++] = q;
+                }
+            }
+        }
+    }
+
+    private static int getSeed(byte[] primer, int position){
+
+        int seed = 0;
+
+        for (int n = position; n < position + seedLength; ++n){
+            if (primer[n] < 0) return -1;
+            seed = (seed << 2) | primer[n];
+        }
+
+        return seed;
+    }
+
+    /**
+     * Seed a partner must contain for the 3' end to pair with it, i.e. the reverse complement of the terminal k-mer
+     */
+    private static int getReverseComplementSeed(byte[] primer){
+
+        if (primer.length < seedLength){
+            return -1;
+        }
+
+        int seed = 0;
+
+        for (int n = primer.length - 1; n >= primer.length - seedLength; --n){
+            if (primer[n] < 0) return -1;
+            seed = (seed << 2) | (3 - primer[n]);
+        }
+
+        return seed;
+    }
+
+}
@@ -1,13 +1,13 @@
 package nhs.genetics.cardiff;
 
-import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFFileReader;
-
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 /**
  * Primer3 wrapper. Call to design primers around a target
@@ -19,18 +19,25 @@ import java.util.regex.Pattern;
 public class Primer3 {
 
     private static final Logger log = Logger.getLogger(Primer3.class.getName());
+    private static final HashMap<File, Integer> numReturns = new HashMap<>();
+    private static final int maxPages = 4; //Primer3 requests per paged target; the last asks for every candidate
 
     private ReferenceSequence referenceSequence;
     private ArrayList<PrimerPair> candidatePrimerPairs = new ArrayList<>();
     private ArrayList<PrimerPair> filteredPrimerPairs = new ArrayList<>();
+    private ArrayList<PrimerPair> deferredPrimerPairs = new ArrayList<>(); //deprioritised candidates held back until the last page
     private ArrayList<String> primer3Output = new ArrayList<>();
     private StringBuilder excludedRegions = new StringBuilder();
-    private HashMap<String, ArrayList<GenomicLocation>> primerAlignments = new HashMap<>();
+    private HashMap<String, AlignmentResult> primerAlignments = new HashMap<>();
     private GenomicLocation targetLocation;
     private Configuration configuration;
-
-    //TODO: ligate M13 adapters
-    //TODO: Re-calculate primer hairpin with M13 adapter
+    private AlignmentCache alignmentCache;
+    private KmerIndex kmerIndex;
+    private KmerBlacklist kmerBlacklist;
+    private int blacklistedCandidates = 0, maxFilteredPrimerPairs = 1;
+    private DesignMetrics metrics = new DesignMetrics();
+    private volatile boolean complete = true; //false if a tool failed, so the outcome may differ on another run
+    private ExecutorService specificityExecutor;
 
     public Primer3(ReferenceSequence referenceSequence,
                    GenomicLocation targetLocation,
@@ -41,8 +48,36 @@ public class Primer3 {
         this.configuration = configuration;
     }
 
-    public void callPrimer3(){
-        log.log(Level.INFO, "Calling Primer3 ...");
+    /**
+     * Settings which persist between records; a pooled process is sent these once, with its first record
+     */
+    static String getGlobalTags(Configuration configuration){
+
+        StringBuilder globalTags = new StringBuilder();
+
+        globalTags.append("PRIMER_MISPRIMING_LIBRARY=");
+        globalTags.append(configuration.getPrimerMisprimingLibrary());
+        globalTags.append("\n");
+        globalTags.append("PRIMER_THERMODYNAMIC_PARAMETERS_PATH=");
+        globalTags.append(configuration.getPrimerThermodynamicPararmetersPath());
+        globalTags.append("/\n");
+        globalTags.append("PRIMER_EXPLAIN_FLAG=1\n");
+
+        return globalTags.toString();
+    }
+
+    private StringBuilder getPrimer3Input(){
+
+        StringBuilder primer3input = new StringBuilder(getGlobalTags(configuration));
+        primer3input.append(getSequenceTags(0));
+
+        return primer3input;
+    }
+
+    /**
+     * @param numReturn candidate pairs to request; 0 uses the settings file
+     */
+    private StringBuilder getSequenceTags(int numReturn){
 
         StringBuilder primer3input = new StringBuilder();
 
@@ -55,59 +90,67 @@ public class Primer3 {
         primer3input.append("SEQUENCE_EXCLUDED_REGION=");
         primer3input.append(excludedRegions.toString());
         primer3input.append("\n");
-        primer3input.append("PRIMER_MISPRIMING_LIBRARY=");
-        primer3input.append(configuration.getPrimerMisprimingLibrary());
-        primer3input.append("\n");
-        primer3input.append("PRIMER_THERMODYNAMIC_PARAMETERS_PATH=");
-        primer3input.append(configuration.getPrimerThermodynamicPararmetersPath());
-        primer3input.append("/\n");
-        primer3input.append("PRIMER_EXPLAIN_FLAG=1\n");
+        if (numReturn > 0){
+            primer3input.append("PRIMER_NUM_RETURN=");
+            primer3input.append(numReturn);
+            primer3input.append("\n");
+        }
         primer3input.append("=");
 
+        return primer3input;
+    }
+
+    public void callPrimer3(){
+        log.log(Level.INFO, "Calling Primer3 ...");
+
+        StringBuilder primer3input = getPrimer3Input();
+
         log.log(Level.FINE, "Passing Primer3 args");
         log.log(Level.FINE, primer3input.toString());
         try{
-            ProcessBuilder exeBuilder;
+            ArrayList<String> command = new ArrayList<>();
+
+            command.add(configuration.getPrimer3FilePath().toString());
+            command.add("-p3_settings_file=" + configuration.getPrimer3Settings().getAbsolutePath());
+            command.add("-echo_settings_file");
 
             if (configuration.isDebug()){
-                exeBuilder = new ProcessBuilder(
-                        configuration.getPrimer3FilePath().toString(),
-                        "-p3_settings_file=" + configuration.getPrimer3Settings().getAbsolutePath(),
-                        "-echo_settings_file",
-                        "-format_output"
-                );
-            } else {
-                exeBuilder = new ProcessBuilder(
-                        configuration.getPrimer3FilePath().toString(),
-                        "-p3_settings_file=" + configuration.getPrimer3Settings().getAbsolutePath(),
-                        "-echo_settings_file"
-                );
+                command.add("-format_output");
             }
 
-            Process process = exeBuilder.start();
-
-            OutputStream stdin = process.getOutputStream();
-            InputStream stdout = process.getInputStream();
+            long stageStart = System.nanoTime();
 
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stdin));
-
-            writer.write(primer3input.toString());
-            writer.flush();
-            writer.close();
+            ProcessRunner.Result result = ProcessRunner.getRunner("primer3").run(command, primer3input.toString(), new ProcessRunner.OutputReader() {
+                @Override
+                public void read(InputStream stdout) throws IOException {
+                    if (configuration.isDebug()){
+                        //keep formatted output for writing to file
+                        Scanner scanner = new Scanner(stdout);
+                        while (scanner.hasNextLine()) {
+                            primer3Output.add(scanner.nextLine());
+                        }
+                    } else {
+                        Primer3OutputParser parser = new Primer3OutputParser(new InputStreamReader(stdout));
+                        candidatePrimerPairs.addAll(parser.parseRecord());
+                        metrics.addTime(DesignMetrics.PRIMER3_PARSE, parser.getParseNanos());
+                    }
+                }
+            });
 
-            Scanner scanner = new Scanner(stdout);
-            while (scanner.hasNextLine()) {
-                primer3Output.add(scanner.nextLine());
-            }
+            metrics.stop(DesignMetrics.PRIMER3_CALL, stageStart);
+            metrics.addCount(DesignMetrics.CANDIDATE_PAIRS, candidatePrimerPairs.size());
 
-            if (process.waitFor() != 0){
-                throw new RuntimeException("Problem invoking Primer3, exit code: " + process.exitValue());
+            if (result.getExitCode() != 0){
+                throw new RuntimeException("Problem invoking Primer3, exit code: " + result.getExitCode() + ", " + result.getStderr());
             }
 
         } catch (IOException e){
             log.log(Level.SEVERE, e.toString());
+            complete = false;
         } catch (InterruptedException e){
             log.log(Level.SEVERE, e.toString());
+            complete = false;
+            Thread.currentThread().interrupt();
         }
 
         if (configuration.isDebug()) {
@@ -119,246 +162,675 @@ public class Primer3 {
         }
 
     }
-    public void splitPrimer3Output(){
+    /**
+     * Designs using a long-lived primer3_core process from the pool. Not available with debug formatted output.
+     */
+    public void callPrimer3(Primer3Pool primer3Pool){
 
-        int primerNo = 0;
-        ArrayList<String> primerPairOutput = new ArrayList<>();
+        ArrayList<PrimerPair> primerPairs = requestCandidates(primer3Pool, 0);
 
-        //Split primer3 output into individual designs and parse
-        for (String line : primer3Output){
+        if (primerPairs != null){
+            candidatePrimerPairs.addAll(primerPairs);
+            metrics.addCount(DesignMetrics.CANDIDATE_PAIRS, candidatePrimerPairs.size());
+        }
 
-            //check record is primer
-            if (Pattern.matches("^PRIMER_PAIR_[0-9]+[_|=].*", line) || Pattern.matches("^PRIMER_LEFT_[0-9]+[_|=].*", line) || Pattern.matches("^PRIMER_RIGHT_[0-9]+[_|=].*", line)) {
+    }
 
-                //split primer fields
-                String[] fields = line.split("_|=");
+    /**
+     * Requests candidates a page at a time from the pool and checks each page for specificity before asking for more,
+     * up to the number the settings file returns. Primer3 cannot resume a pick, so each request repeats the pairs
+     * already returned; the request doubles each time and the last of {@link #maxPages} asks for everything, so a hard
+     * target costs at most about twice the picking of a single call. Pairs already returned must come back first in the
+     * same order; they are then skipped and the pair chosen matches a single call followed by
+     * {@link #checkPrimerAlignments()}. If Primer3 reorders them the full list is requested at once instead. A pair
+     * accepted from the first page cannot be checked this way, so paging assumes Primer3 ranks a short list as the head
+     * of a longer one.
+     *
+     * @param pageSize candidate pairs in the first request
+     */
+    public void callPrimer3Paged(Primer3Pool primer3Pool, int pageSize){
 
-                //check if this is a new record
-                if (Integer.parseInt(fields[2]) == primerNo) {
+        int maxCandidates = getNumReturn(configuration.getPrimer3Settings()), requested = 0, pages = 0;
+        ArrayList<String> returned = new ArrayList<>(); //pairs already checked, in rank order
 
-                    //current primer
-                    primerPairOutput.add(line);
+        while (requested < maxCandidates){
 
-                } else {
+            requested = ++pages < maxPages ? Math.min(requested == 0 ? pageSize : requested * 2, maxCandidates) : maxCandidates;
+
+            ArrayList<PrimerPair> primerPairs = requestCandidates(primer3Pool, requested);
+
+            if (primerPairs == null){
+                return;
+            }
 
-                    //new primer
+            metrics.addCount(DesignMetrics.PRIMER3_PAGES, 1);
 
-                    //dispose of last primer & skip null primers
-                    try {
-                        PrimerPair primerPair = new PrimerPair(primerPairOutput);
-                        primerPair.populatePrimerMetrics();
+            ArrayList<PrimerPair> page = new ArrayList<>();
 
-                        candidatePrimerPairs.add(primerPair);
-                    } catch (MissingFormatArgumentException e){
-                        log.log(Level.FINE, e.getMessage());
+            if (isPrefix(returned, primerPairs)){
+                page.addAll(primerPairs.subList(returned.size(), primerPairs.size()));
+            } else if (requested < maxCandidates){
+                log.log(Level.WARNING, "Primer3 reordered candidates between pages, requesting all " + maxCandidates + " at once");
+                pages = maxPages - 1;
+                continue;
+            } else {
+                //full list; check the pairs not yet returned in its order
+                HashSet<String> seen = new HashSet<>(returned);
+                for (PrimerPair primerPair : primerPairs){
+                    if (!seen.contains(getCandidateKey(primerPair))){
+                        page.add(primerPair);
                     }
+                }
+            }
 
-                    primerPairOutput.clear();
+            for (PrimerPair primerPair : page){
+                returned.add(getCandidateKey(primerPair));
+            }
 
-                    //load new primer
-                    primerPairOutput.add(line);
+            boolean last = primerPairs.size() < requested || requested == maxCandidates;
 
-                    //reset primerNo value for new primer
-                    primerNo = Integer.parseInt(fields[2]);
-                }
+            metrics.addCount(DesignMetrics.CANDIDATE_PAIRS, page.size());
 
-            } else if (line.equals("=")){
+            if (checkPage(page, last) || last || Thread.currentThread().isInterrupted()){
+                return;
+            }
 
-                //dispose of last primer & skip null primers
-                try {
-                    PrimerPair primerPair = new PrimerPair(primerPairOutput);
-                    primerPair.populatePrimerMetrics();
+            log.log(Level.INFO, "No specific primer pair in the first " + requested + " candidate(s), requesting more");
+        }
 
-                    candidatePrimerPairs.add(primerPair);
-                } catch (MissingFormatArgumentException e){
-                    log.log(Level.FINE, e.getMessage());
-                }
+    }
 
-            } else {
-                //primer summary
-                log.log(Level.FINE, line);
+    /**
+     * @return true if the candidates start with the pairs already returned, in the same order
+     */
+    private static boolean isPrefix(ArrayList<String> returned, ArrayList<PrimerPair> primerPairs){
+
+        if (primerPairs.size() < returned.size()){
+            return false;
+        }
+
+        for (int n = 0; n < returned.size(); ++n){
+            if (!returned.get(n).equals(getCandidateKey(primerPairs.get(n)))){
+                return false;
             }
+        }
+
+        return true;
+    }
+
+    private static String getCandidateKey(PrimerPair primerPair){
+        return primerPair.getLeftPosition() + ":" + primerPair.getRightPosition() + ":" + primerPair.getLeftSequence() + ":" + primerPair.getRightSequence();
+    }
 
+    /**
+     * @param numReturn candidate pairs to request; 0 uses the settings file
+     * @return candidates in rank order, or null if Primer3 failed
+     */
+    private ArrayList<PrimerPair> requestCandidates(Primer3Pool primer3Pool, int numReturn){
+        log.log(Level.INFO, "Calling Primer3 ...");
+
+        //PRIMER_NUM_RETURN persists in a pooled process so is always sent
+        StringBuilder primer3input = getSequenceTags(numReturn > 0 ? numReturn : getNumReturn(configuration.getPrimer3Settings()));
+        primer3input.append("\n");
+
+        log.log(Level.FINE, "Passing Primer3 args");
+        log.log(Level.FINE, primer3input.toString());
+
+        try {
+            long stageStart = System.nanoTime();
+            ArrayList<PrimerPair> primerPairs = primer3Pool.callPrimer3(primer3input.toString(), metrics);
+            metrics.stop(DesignMetrics.PRIMER3_CALL, stageStart);
+            return primerPairs;
+        } catch (IOException e){
+            log.log(Level.SEVERE, e.toString());
+            complete = false;
+        } catch (InterruptedException e){
+            log.log(Level.SEVERE, e.toString());
+            complete = false;
+            Thread.currentThread().interrupt();
         }
 
+        return null;
+    }
+
+    /**
+     * PRIMER_NUM_RETURN from the settings file, or the Primer3 default; read once per file
+     */
+    private static int getNumReturn(File primer3Settings){
+        synchronized (numReturns){
+
+            Integer numReturn = numReturns.get(primer3Settings);
+
+            if (numReturn == null){
+
+                String line;
+                numReturn = 5;
+
+                try (BufferedReader reader = new BufferedReader(new FileReader(primer3Settings))){
+                    while ((line = reader.readLine()) != null){
+                        if (line.startsWith("PRIMER_NUM_RETURN=")){
+                            numReturn = Integer.parseInt(line.substring("PRIMER_NUM_RETURN=".length()).trim());
+                        }
+                    }
+                    reader.close();
+                } catch (IOException | NumberFormatException e){
+                    log.log(Level.WARNING, "Could not read PRIMER_NUM_RETURN from " + primer3Settings + ": " + e.getMessage());
+                }
+
+                numReturns.put(primer3Settings, numReturn);
+            }
+
+            return numReturn;
+        }
     }
 
     public void checkPrimerAlignments(){
 
-        boolean hasCorrectAlignment;
-        int alignments;
+        ArrayList<PrimerPair> page = new ArrayList<>(candidatePrimerPairs);
+        candidatePrimerPairs.clear();
+
+        checkPage(page, true);
+    }
+
+    /**
+     * Screens new candidates and checks them for specificity after those already checked. Deprioritised candidates are
+     * held back until the last page so they follow every clean candidate, as they would in a single page.
+     *
+     * @param last true if no more candidates will be requested
+     * @return true once enough specific primer pairs were found
+     */
+    private boolean checkPage(ArrayList<PrimerPair> page, boolean last){
+
+        //secondary structures change once tails are ligated
+        if (!configuration.getLeftPrimerTail().equals("") || !configuration.getRightPrimerTail().equals("")){
+            rescoreTailedCandidates(page);
+        }
 
-        log.log(Level.INFO, "Testing " + candidatePrimerPairs.size() + " candidate primer pair(s).");
+        //drop or defer candidates with repeat-derived 3' ends before aligning
+        if (kmerBlacklist != null){
+            boolean reject = configuration.getKmerBlacklistMode().equals("reject");
+            int flagged = kmerBlacklist.filter(page, reject);
+            if (!reject){
+                deferredPrimerPairs.addAll(page.subList(page.size() - flagged, page.size()));
+                page.subList(page.size() - flagged, page.size()).clear();
+            }
+            blacklistedCandidates += flagged;
+            metrics.addCount(DesignMetrics.BLACKLISTED_CANDIDATES, flagged);
+            log.log(Level.INFO, (reject ? "Rejected " : "Deprioritised ") + flagged + " candidate primer pair(s) with high-copy 3' k-mers.");
+        }
+
+        int from = candidatePrimerPairs.size();
+        candidatePrimerPairs.addAll(page);
+        int cleanCandidates = candidatePrimerPairs.size();
+
+        if (last){
+            candidatePrimerPairs.addAll(deferredPrimerPairs);
+            deferredPrimerPairs.clear();
+        }
+
+        log.log(Level.INFO, "Testing " + (candidatePrimerPairs.size() - from) + " candidate primer pair(s).");
+
+        if (specificityExecutor != null && configuration.getSpeculativeCandidates() > 1){
+            checkPrimerAlignmentsSpeculatively(from);
+            return filteredPrimerPairs.size() == maxFilteredPrimerPairs;
+        }
 
         //loop over candidate primer pairs
-        for (int j = 0; j < candidatePrimerPairs.size(); ++j){
+        for (int j = from; j < candidatePrimerPairs.size(); ++j){
+
+            //blast clean candidates in one run; deprioritised candidates only if none of those are specific
+            if (j == from || j == cleanCandidates){
+                alignCandidates(j, j < cleanCandidates ? cleanCandidates : candidatePrimerPairs.size());
+            }
+
+            if (isSpecific(j, primerAlignments.get(candidatePrimerPairs.get(j).getLeftSequence()), primerAlignments.get(candidatePrimerPairs.get(j).getRightSequence()))){
+                filteredPrimerPairs.add(candidatePrimerPairs.get(j));
+                if (filteredPrimerPairs.size() == maxFilteredPrimerPairs) break; //only deliver the best good primer pair(s)
+            }
+        }
 
-            log.log(Level.INFO, "Checking primer specificity for candidate pair: " + (j + 1));
+        return filteredPrimerPairs.size() == maxFilteredPrimerPairs;
+    }
 
-            hasCorrectAlignment = false;
-            alignments = 0;
+    /**
+     * Adds the change tails make to each hairpin and dimer melting temperature to the value Primer3 reported for the
+     * untailed primers, then drops candidates over the Primer3 limits. Only the difference between the tailed and
+     * untailed primers is taken from {@link Thermodynamics}, so Primer3's thal values stay the baseline the limits are
+     * set against.
+     */
+    private void rescoreTailedCandidates(ArrayList<PrimerPair> primerPairs){
 
-            try {
+        long stageStart = System.nanoTime();
+        Thermodynamics thermodynamics = Thermodynamics.getThermodynamics(configuration);
+        String leftTail = configuration.getLeftPrimerTail(), rightTail = configuration.getRightPrimerTail();
+        HashMap<String, double[]> leftShifts = new HashMap<>(), rightShifts = new HashMap<>(); //primers recur between pairs
+        int rejected = 0;
 
-                //blast primers if not already done
-                if (!primerAlignments.containsKey(candidatePrimerPairs.get(j).getLeftSequence())){
-                    primerAlignments.put(candidatePrimerPairs.get(j).getLeftSequence(), Blast.callShortQueryBlast(candidatePrimerPairs.get(j).getLeftSequence(), configuration.getBlastnFilePath(), configuration.getBlastnRefPath(), configuration.getMaxExactMatches(), configuration.getMinSimilarity()));
-                }
+        Iterator<PrimerPair> iterator = primerPairs.iterator();
+        while (iterator.hasNext()){
 
-                if (!primerAlignments.containsKey(candidatePrimerPairs.get(j).getRightSequence())){
-                    primerAlignments.put(candidatePrimerPairs.get(j).getRightSequence(), Blast.callShortQueryBlast(candidatePrimerPairs.get(j).getRightSequence(), configuration.getBlastnFilePath(), configuration.getBlastnRefPath(), configuration.getMaxExactMatches(), configuration.getMinSimilarity()));
-                }
+            PrimerPair primerPair = iterator.next();
+            String left = primerPair.getLeftSequence(), right = primerPair.getRightSequence();
 
-            } catch (MaxAlignmentExceededException e){
-                log.log(Level.INFO, "Skipping pair: " + e.getMessage());
-                continue;
+            double[] leftShift = leftShifts.get(left), rightShift = rightShifts.get(right);
+
+            if (leftShift == null){
+                leftShift = getTailShifts(thermodynamics, leftTail, left);
+                leftShifts.put(left, leftShift);
+            }
+            if (rightShift == null){
+                rightShift = getTailShifts(thermodynamics, rightTail, right);
+                rightShifts.put(right, rightShift);
             }
 
-            //loop over all primer alignments for this pair
-            for (GenomicLocation leftAlignment : primerAlignments.get(candidatePrimerPairs.get(j).getLeftSequence())) {
-                for (GenomicLocation rightAlignment : primerAlignments.get(candidatePrimerPairs.get(j).getRightSequence())) {
+            primerPair.setLeftHairpin(primerPair.getLeftHairpin() + leftShift[0]);
+            primerPair.setRightHairpin(primerPair.getRightHairpin() + rightShift[0]);
+            primerPair.setLeftSelfAnyTh(primerPair.getLeftSelfAnyTh() + leftShift[1]);
+            primerPair.setRightSelfAnyTh(primerPair.getRightSelfAnyTh() + rightShift[1]);
+            primerPair.setLeftSelfEnd(primerPair.getLeftSelfEnd() + leftShift[2]);
+            primerPair.setRightSelfEnd(primerPair.getRightSelfEnd() + rightShift[2]);
+            primerPair.setComplAny(primerPair.getComplAny() + getTailShift(thermodynamics.getDimerTm(leftTail + left, rightTail + right, false), thermodynamics.getDimerTm(left, right, false)));
+            primerPair.setComplEnd(primerPair.getComplEnd() + getTailShift(thermodynamics.getDimerTm(leftTail + left, rightTail + right, true), thermodynamics.getDimerTm(left, right, true)));
+
+            if (primerPair.getLeftHairpin() > thermodynamics.getMaxHairpinTm() || primerPair.getRightHairpin() > thermodynamics.getMaxHairpinTm() ||
+                    primerPair.getLeftSelfAnyTh() > thermodynamics.getMaxSelfAnyTm() || primerPair.getRightSelfAnyTh() > thermodynamics.getMaxSelfAnyTm() ||
+                    primerPair.getLeftSelfEnd() > thermodynamics.getMaxSelfEndTm() || primerPair.getRightSelfEnd() > thermodynamics.getMaxSelfEndTm() ||
+                    primerPair.getComplAny() > thermodynamics.getMaxComplAnyTm() || primerPair.getComplEnd() > thermodynamics.getMaxComplEndTm()){
+                iterator.remove();
+                rejected++;
+            }
+        }
 
-                    //skip alignments on different contigs
-                    if (!leftAlignment.getContig().equals(rightAlignment.getContig())) {
-                        continue;
-                    }
+        metrics.stop(DesignMetrics.TAIL_RESCORE, stageStart);
+        metrics.addCount(DesignMetrics.TAIL_REJECTED_CANDIDATES, rejected);
 
-                    //check primers are orientated correctly for amplification
-                    if (
-                            leftAlignment.getStartPosition() < leftAlignment.getEndPosition() && //check orientation
-                            rightAlignment.getStartPosition() > rightAlignment.getEndPosition() &&//check orientation
-                            rightAlignment.getStartPosition() - leftAlignment.getStartPosition() > 0 && //check primers point towards each other
-                            rightAlignment.getStartPosition() - leftAlignment.getStartPosition() < configuration.getMaxPrimerDistance() //check amplicon is less than maxSize;
+        log.log(Level.INFO, "Rejected " + rejected + " candidate primer pair(s) with tailed secondary structures over the Primer3 limits.");
+    }
 
-                    ) {
+    /**
+     * @return rise in hairpin, self-dimer and 3' self-dimer melting temperatures from ligating the tail
+     */
+    private static double[] getTailShifts(Thermodynamics thermodynamics, String tail, String primer){
 
-                        alignments++; //+ strand
+        String tailed = tail + primer;
 
-                        //check primer alignment start and length
-                        String[] leftPrimerOffsetAndLength = candidatePrimerPairs.get(j).getLeftPosition().split(",");
-                        String[] rightPrimerOffsetAndLength = candidatePrimerPairs.get(j).getRightPosition().split(",");
+        return new double[]{
+                getTailShift(thermodynamics.getHairpinTm(tailed), thermodynamics.getHairpinTm(primer)),
+                getTailShift(thermodynamics.getDimerTm(tailed, tailed, false), thermodynamics.getDimerTm(primer, primer, false)),
+                getTailShift(thermodynamics.getDimerTm(tailed, tailed, true), thermodynamics.getDimerTm(primer, primer, true))
+        };
+    }
 
-                        if (
-                                Integer.parseInt(leftPrimerOffsetAndLength[0]) + (targetLocation.getStartPosition() - configuration.getPadding()) == leftAlignment.getStartPosition() + 1 &&
-                                Integer.parseInt(leftPrimerOffsetAndLength[1]) == ((leftAlignment.getEndPosition() - leftAlignment.getStartPosition()) + 1) &&
-                                Integer.parseInt(rightPrimerOffsetAndLength[0]) + (targetLocation.getStartPosition() - configuration.getPadding()) == rightAlignment.getStartPosition() + 1 &&
-                                Integer.parseInt(rightPrimerOffsetAndLength[1]) == ((rightAlignment.getStartPosition() - rightAlignment.getEndPosition()) + 1) &&
-                                targetLocation.getContig().equals(leftAlignment.getContig())) {
+    /**
+     * A tail only adds structure; a lower value for the tailed primer is a difference in the chosen structure, not a gain
+     */
+    private static double getTailShift(double tailedTm, double untailedTm){
+        return Math.max(0, tailedTm - untailedTm);
+    }
 
-                            hasCorrectAlignment = true;
+    private void alignCandidates(int from, int to){
 
-                            GenomicLocation amplifibleRegion = new GenomicLocation(leftAlignment.getContig(), leftAlignment.getStartPosition() + Integer.parseInt(leftPrimerOffsetAndLength[1]), rightAlignment.getStartPosition() - Integer.parseInt(rightPrimerOffsetAndLength[1]));
-                            amplifibleRegion.setStrand(1);
+        ArrayList<String> unalignedSequences = new ArrayList<>();
 
-                            candidatePrimerPairs.get(j).setAmplifiableRegion(amplifibleRegion);
-                        }
+        //blast all candidate primers not already done in one run
+        for (PrimerPair candidatePrimerPair : candidatePrimerPairs.subList(from, to)){
+            if (!primerAlignments.containsKey(candidatePrimerPair.getLeftSequence())) unalignedSequences.add(candidatePrimerPair.getLeftSequence());
+            if (!primerAlignments.containsKey(candidatePrimerPair.getRightSequence())) unalignedSequences.add(candidatePrimerPair.getRightSequence());
+        }
 
-                    } else if (
+        primerAlignments.putAll(alignPrimers(unalignedSequences));
+    }
 
-                            rightAlignment.getEndPosition() < rightAlignment.getStartPosition() && //check orientation
-                            leftAlignment.getEndPosition() > leftAlignment.getStartPosition() &&//check orientation
-                            leftAlignment.getEndPosition() - rightAlignment.getEndPosition() > 0 && //check primers point towards each other
-                            leftAlignment.getEndPosition() - rightAlignment.getEndPosition() < configuration.getMaxPrimerDistance()) {//check amplicon is less than maxSize;
+    /**
+     * Checks candidates a window at a time. The primers of a window not already aligned are aligned in one run, shared
+     * by the pairs using them; once the best pair of a window fails the next window is aligned concurrently. Pairs are
+     * judged in rank order so the chosen pair is the same as the sequential check; alignments behind it are cancelled.
+     */
+    private void checkPrimerAlignmentsSpeculatively(int from){
 
-                        alignments++; //- strand
+        int window = configuration.getSpeculativeCandidates();
+        HashMap<String, Future<HashMap<String, AlignmentResult>>> pendingAlignments = new HashMap<>();
+        int submitted = from; //candidates below this have their primers aligned or in flight
 
-                        //check primer alignment start and length
-                        String[] leftPrimerOffsetAndLength = candidatePrimerPairs.get(j).getLeftPosition().split(",");
-                        String[] rightPrimerOffsetAndLength = candidatePrimerPairs.get(j).getRightPosition().split(",");
+        try {
 
-                        if (
-                                Integer.parseInt(leftPrimerOffsetAndLength[0]) + (targetLocation.getStartPosition() - configuration.getPadding()) == leftAlignment.getStartPosition() + 1 &&
-                                Integer.parseInt(leftPrimerOffsetAndLength[1]) == ((leftAlignment.getEndPosition() - leftAlignment.getStartPosition()) + 1) &&
-                                Integer.parseInt(rightPrimerOffsetAndLength[0]) + (targetLocation.getStartPosition() - configuration.getPadding()) == rightAlignment.getStartPosition() + 1 &&
-                                Integer.parseInt(rightPrimerOffsetAndLength[1]) == ((rightAlignment.getStartPosition() - rightAlignment.getEndPosition()) + 1) &&
-                                targetLocation.getContig().equals(leftAlignment.getContig())) {
+            submitted = submitAlignments(submitted, window, pendingAlignments);
 
-                            hasCorrectAlignment = true;
+            for (int j = from; j < candidatePrimerPairs.size(); ++j){
 
-                            GenomicLocation amplifibleRegion = new GenomicLocation(leftAlignment.getContig(), leftAlignment.getStartPosition() + Integer.parseInt(leftPrimerOffsetAndLength[1]), rightAlignment.getStartPosition() - Integer.parseInt(rightPrimerOffsetAndLength[1]));
-                            amplifibleRegion.setStrand(-1);
+                //align the next window while the rest of this one is judged once its best pair fails
+                if (j == submitted - window + 1){
+                    submitted = submitAlignments(submitted, window, pendingAlignments);
+                }
 
-                            candidatePrimerPairs.get(j).setAmplifiableRegion(amplifibleRegion);
-                        }
+                String left = candidatePrimerPairs.get(j).getLeftSequence(), right = candidatePrimerPairs.get(j).getRightSequence();
 
+                for (String sequence : new String[]{left, right}){
+                    Future<HashMap<String, AlignmentResult>> future = pendingAlignments.get(sequence);
+                    if (future != null && !primerAlignments.containsKey(sequence)){
+                        primerAlignments.putAll(future.get());
                     }
-
                 }
-            } //done looping over primer alignments
 
-            //bank specific primer pairs
-            if (!hasCorrectAlignment){
-                log.log(Level.WARNING, "Could not find correct alignment for: " + (j + 1));
-            } else {
-                if (alignments == 1){
+                if (isSpecific(j, primerAlignments.get(left), primerAlignments.get(right))){
                     filteredPrimerPairs.add(candidatePrimerPairs.get(j));
-                    break; //only deliver one good primer pair
-                } else {
-                    log.log(Level.INFO, "Could not find specific alignment for: " + (j + 1));
+                    if (filteredPrimerPairs.size() == maxFilteredPrimerPairs) break; //only deliver the best good primer pair(s)
                 }
+
             }
 
+        } catch (ExecutionException e){
+            log.log(Level.SEVERE, "Could not check primer specificity: " + e.getCause());
+            complete = false;
+        } catch (InterruptedException e){
+            log.log(Level.SEVERE, e.toString());
+            complete = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            //cancel alignments of lower-ranked windows still running
+            for (Future<HashMap<String, AlignmentResult>> future : pendingAlignments.values()){
+                future.cancel(true);
+            }
         }
 
     }
 
-    public void setExcludedRegions(File vcfFilePath, int maxIndelLength){
+    /**
+     * Aligns the primers of the next window of candidates not aligned or in flight in one run
+     *
+     * @return the first candidate not yet submitted
+     */
+    private int submitAlignments(int from, int window, HashMap<String, Future<HashMap<String, AlignmentResult>>> pendingAlignments){
+
+        int to = Math.min(from + window, candidatePrimerPairs.size());
+        final LinkedHashSet<String> sequences = new LinkedHashSet<>();
+
+        //candidates share most of their primers
+        for (PrimerPair candidatePrimerPair : candidatePrimerPairs.subList(from, to)){
+            for (String sequence : new String[]{candidatePrimerPair.getLeftSequence(), candidatePrimerPair.getRightSequence()}){
+                if (!primerAlignments.containsKey(sequence) && !pendingAlignments.containsKey(sequence)){
+                    sequences.add(sequence);
+                }
+            }
+        }
 
-        //get nearby dbSNP entries
-        VCFFileReader vcfFile = new VCFFileReader(vcfFilePath, new File(vcfFilePath + ".idx"));
-        Iterator<VariantContext> it = vcfFile.query(targetLocation.getContig(), targetLocation.getStartPosition() - configuration.getPadding(), targetLocation.getEndPosition() + configuration.getPadding());
-        ArrayList<Long> sortedExcludedPositions = new ArrayList<>();
-        HashSet<Long> excludedPositions = new HashSet<>();
+        if (sequences.size() > 0){
 
-        while(it.hasNext()) {
+            Future<HashMap<String, AlignmentResult>> future = specificityExecutor.submit(new Callable<HashMap<String, AlignmentResult>>() {
+                @Override
+                public HashMap<String, AlignmentResult> call() {
+                    return alignPrimers(sequences);
+                }
+            });
 
-            VariantContext poly = it.next();
+            for (String sequence : sequences){
+                pendingAlignments.put(sequence, future);
+            }
+        }
 
-            if (poly.isSNP()){
+        return to;
+    }
 
-                //loop over known variant bases
-                for (long n = poly.getStart() + 1; n < poly.getEnd() + 2; ++n){ //1-based
+    /**
+     * Aligns primers to the genome with the configured specificity backend
+     */
+    private HashMap<String, AlignmentResult> alignPrimers(Collection<String> sequences){
 
-                    //exclude regions (convert from chrom to seq pos)
-                    excludedPositions.add(n - (targetLocation.getStartPosition() - configuration.getPadding()));
+        HashMap<String, AlignmentResult> results;
+        long stageStart = System.nanoTime();
 
-                }
+        if (kmerIndex != null){
+            results = kmerIndex.align(sequences, configuration.getKmerMaxMismatches(), configuration.getMaxExactMatches(), configuration.getMinSimilarity());
+        } else {
+            results = Blast.callShortQueryBlast(sequences, configuration.getBlastnFilePath(), configuration.getBlastnRefPath(), configuration.getMaxExactMatches(), configuration.getMinSimilarity(), alignmentCache, metrics);
+        }
 
-            } else if (poly.isIndel()){
+        metrics.stop(DesignMetrics.ALIGNMENT, stageStart);
+        metrics.addCount(DesignMetrics.ALIGNED_PRIMERS, results.size());
 
-                //loop over known variant bases
-                for (long n = poly.getStart() + 2; n < poly.getEnd() + 2; ++n){ //1-based
+        //missing results mean the aligner failed; cancelled speculative checks are ignored
+        if (!Thread.currentThread().isInterrupted() && !results.keySet().containsAll(sequences)){
+            complete = false;
+        }
 
-                    //skip indels greater than 10bp
-                    if (poly.getEnd() - poly.getStart() > maxIndelLength){
-                        continue;
+        for (AlignmentResult result : results.values()){
+            try {
+                metrics.addCount(DesignMetrics.ALIGNMENT_HITS, result.getAlignments().size());
+            } catch (MaxAlignmentExceededException e){
+                //too many hits to keep
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Checks a candidate has exactly one amplifiable alignment pair and that it is at the designed position. Sets the
+     * amplifiable region of the candidate.
+     */
+    private boolean isSpecific(int j, AlignmentResult leftResult, AlignmentResult rightResult){
+
+        boolean hasCorrectAlignment = false;
+        int alignments = 0;
+        ArrayList<GenomicLocation> leftAlignments, rightAlignments;
+
+        log.log(Level.INFO, "Checking primer specificity for candidate pair: " + (j + 1));
+
+        metrics.addCount(DesignMetrics.CANDIDATE_PAIRS_TESTED, 1);
+
+        if (leftResult == null || rightResult == null){
+            log.log(Level.WARNING, "No alignments for: " + (j + 1));
+            return false;
+        }
+
+        try {
+            leftAlignments = leftResult.getAlignments();
+            rightAlignments = rightResult.getAlignments();
+        } catch (MaxAlignmentExceededException e){
+            log.log(Level.INFO, "Skipping pair: " + e.getMessage());
+            return false;
+        }
+
+        long stageStart = System.nanoTime();
+
+        //designed primer offsets and lengths
+        String[] leftPrimerOffsetAndLength = candidatePrimerPairs.get(j).getLeftPosition().split(",");
+        String[] rightPrimerOffsetAndLength = candidatePrimerPairs.get(j).getRightPosition().split(",");
+        int leftLength = Integer.parseInt(leftPrimerOffsetAndLength[1]), rightLength = Integer.parseInt(rightPrimerOffsetAndLength[1]);
+        int expectedLeftStart = Integer.parseInt(leftPrimerOffsetAndLength[0]) + (targetLocation.getStartPosition() - configuration.getPadding()) - 1;
+        int expectedRightStart = Integer.parseInt(rightPrimerOffsetAndLength[0]) + (targetLocation.getStartPosition() - configuration.getPadding()) - 1;
+
+        int maxPrimerDistance = configuration.getMaxPrimerDistance();
+        int correctLeft = -1, correctRight = -1, correctStrand = 0;
+
+        //check primers are orientated correctly for amplification
+        HashMap<String, ArrayList<Integer>> forwardLeftAlignments = groupByContig(leftAlignments, true);
+        HashMap<String, ArrayList<Integer>> reverseRightAlignments = groupByContig(rightAlignments, false);
+
+        //sweep alignment pairs on each contig within the maximum amplicon size
+        for (Map.Entry<String, ArrayList<Integer>> contig : forwardLeftAlignments.entrySet()){
+
+            ArrayList<Integer> rightIndices = reverseRightAlignments.get(contig.getKey());
+            if (rightIndices == null) continue;
+
+            boolean onTargetContig = targetLocation.getContig().equals(contig.getKey());
+
+            //+ strand: right start within maxPrimerDistance downstream of left start
+            long[] lefts = sortByPosition(leftAlignments, contig.getValue(), true);
+            long[] rights = sortByPosition(rightAlignments, rightIndices, true);
+            int first = 0;
+
+            for (long left : lefts){
+
+                int leftStart = (int) (left >>> 32);
+                while (first < rights.length && (int) (rights[first] >>> 32) <= leftStart) first++;
+
+                for (int k = first; k < rights.length && (int) (rights[k] >>> 32) - leftStart < maxPrimerDistance; ++k){
+
+                    alignments++;
+
+                    int l = (int) left, r = (int) rights[k];
+                    if (onTargetContig && isDesignedPosition(leftAlignments.get(l), rightAlignments.get(r), expectedLeftStart, leftLength, expectedRightStart, rightLength) &&
+                            (l > correctLeft || (l == correctLeft && r > correctRight))){
+                        correctLeft = l;
+                        correctRight = r;
+                        correctStrand = 1;
                     }
+                }
+            }
+
+            //- strand: right end within maxPrimerDistance upstream of left end, not already counted
+            lefts = sortByPosition(leftAlignments, contig.getValue(), false);
+            rights = sortByPosition(rightAlignments, rightIndices, false);
+            first = 0;
+
+            for (long left : lefts){
+
+                int leftEnd = (int) (left >>> 32);
+                while (first < rights.length && (int) (rights[first] >>> 32) <= leftEnd - maxPrimerDistance) first++;
 
-                    //exclude regions (convert from chrom to seq pos)
-                    excludedPositions.add(n - (targetLocation.getStartPosition() - configuration.getPadding()));
+                for (int k = first; k < rights.length && (int) (rights[k] >>> 32) < leftEnd; ++k){
 
+                    int l = (int) left, r = (int) rights[k];
+                    int distance = rightAlignments.get(r).getStartPosition() - leftAlignments.get(l).getStartPosition();
+                    if (distance > 0 && distance < maxPrimerDistance) continue;
+
+                    alignments++;
+
+                    if (onTargetContig && isDesignedPosition(leftAlignments.get(l), rightAlignments.get(r), expectedLeftStart, leftLength, expectedRightStart, rightLength) &&
+                            (l > correctLeft || (l == correctLeft && r > correctRight))){
+                        correctLeft = l;
+                        correctRight = r;
+                        correctStrand = -1;
+                    }
                 }
+            }
+
+        }
+
+        //check primer alignment start and length
+        if (correctLeft >= 0){
+
+            hasCorrectAlignment = true;
+
+            GenomicLocation leftAlignment = leftAlignments.get(correctLeft), rightAlignment = rightAlignments.get(correctRight);
+            GenomicLocation amplifibleRegion = new GenomicLocation(leftAlignment.getContig(), leftAlignment.getStartPosition() + leftLength, rightAlignment.getStartPosition() - rightLength);
+            amplifibleRegion.setStrand(correctStrand);
 
+            candidatePrimerPairs.get(j).setAmplifiableRegion(amplifibleRegion);
+        }
+
+        //bank specific primer pairs
+        if (!hasCorrectAlignment){
+            log.log(Level.WARNING, "Could not find correct alignment for: " + (j + 1));
+        } else if (alignments != 1){
+            log.log(Level.INFO, "Could not find specific alignment for: " + (j + 1));
+        }
+
+        metrics.stop(DesignMetrics.PAIRING, stageStart);
+
+        return hasCorrectAlignment && alignments == 1;
+    }
+
+    /**
+     * Indices of alignments by contig; left primers must align forward and right primers reverse
+     */
+    private static HashMap<String, ArrayList<Integer>> groupByContig(ArrayList<GenomicLocation> alignments, boolean forward){
+
+        HashMap<String, ArrayList<Integer>> indices = new HashMap<>();
+
+        for (int n = 0; n < alignments.size(); ++n){
+
+            GenomicLocation alignment = alignments.get(n);
+            if (forward ? alignment.getStartPosition() >= alignment.getEndPosition() : alignment.getStartPosition() <= alignment.getEndPosition()) continue;
+
+            ArrayList<Integer> contigIndices = indices.get(alignment.getContig());
+            if (contigIndices == null){
+                contigIndices = new ArrayList<>();
+                indices.put(alignment.getContig(), contigIndices);
             }
 
+            contigIndices.add(n);
+        }
+
+        return indices;
+    }
+
+    /**
+     * @return alignment start or end position in the high 32 bits and alignment index in the low 32 bits, sorted
+     */
+    private static long[] sortByPosition(ArrayList<GenomicLocation> alignments, ArrayList<Integer> indices, boolean byStart){
+
+        long[] keys = new long[indices.size()];
+
+        for (int n = 0; n < keys.length; ++n){
+            GenomicLocation alignment = alignments.get(indices.get(n));
+            keys[n] = ((long) (byStart ? alignment.getStartPosition() : alignment.getEndPosition()) << 32) | indices.get(n);
         }
 
-        //convert hashset to array
-        for (long n : excludedPositions){
-            sortedExcludedPositions.add(n);
+        Arrays.sort(keys);
+
+        return keys;
+    }
+
+    private static boolean isDesignedPosition(GenomicLocation leftAlignment, GenomicLocation rightAlignment, int expectedLeftStart, int leftLength, int expectedRightStart, int rightLength){
+        return leftAlignment.getStartPosition() == expectedLeftStart &&
+                leftAlignment.getEndPosition() - leftAlignment.getStartPosition() + 1 == leftLength &&
+                rightAlignment.getStartPosition() == expectedRightStart &&
+                rightAlignment.getStartPosition() - rightAlignment.getEndPosition() + 1 == rightLength;
+    }
+
+    public void setExcludedRegions(File vcfFilePath, int maxIndelLength){
+        try {
+            setExcludedRegions(VariantIndex.getIndex(vcfFilePath, maxIndelLength));
+        } catch (IOException e){
+            log.log(Level.SEVERE, "Could not read variant index: " + e.getMessage());
         }
+    }
+
+    public void setExcludedRegions(VariantIndex variantIndex){
 
-        //sort excluded bases
-        Collections.sort(sortedExcludedPositions);
+        long stageStart = System.nanoTime();
 
-        for (long n : sortedExcludedPositions){
-            excludedRegions.append(n);
+        //get nearby dbSNP entries; adjacent positions are already merged
+        int sequenceStart = targetLocation.getStartPosition() - configuration.getPadding();
+        int[] excludedSpans = variantIndex.query(targetLocation.getContig(), sequenceStart, targetLocation.getEndPosition() + configuration.getPadding());
+
+        for (int n = 0; n < excludedSpans.length; n += 2){
+
+            //exclude regions (convert from chrom to seq pos)
+            excludedRegions.append(excludedSpans[n] - sequenceStart + 1);
             excludedRegions.append(",");
-            excludedRegions.append(1); //length
+            excludedRegions.append(excludedSpans[n + 1] - excludedSpans[n] + 1); //length
             excludedRegions.append(" ");
+
+            metrics.addCount(DesignMetrics.EXCLUDED_POSITIONS, excludedSpans[n + 1] - excludedSpans[n] + 1);
         }
 
-        vcfFile.close();
+        metrics.stop(DesignMetrics.VARIANT_EXCLUSION, stageStart);
+
+    }
+
+    public void setAlignmentCache(AlignmentCache alignmentCache) {
+        this.alignmentCache = alignmentCache;
+    }
+    public void setKmerIndex(KmerIndex kmerIndex) {
+        this.kmerIndex = kmerIndex;
+    }
+    public void setKmerBlacklist(KmerBlacklist kmerBlacklist) {
+        this.kmerBlacklist = kmerBlacklist;
+    }
+    public void setMetrics(DesignMetrics metrics) {
+        this.metrics = metrics;
+    }
+    public void setSpecificityExecutor(ExecutorService specificityExecutor) {
+        this.specificityExecutor = specificityExecutor;
+    }
+    /**
+     * @param maxFilteredPrimerPairs specific pairs to deliver in rank order; more than one keeps alternatives for pooling
+     */
+    public void setMaxFilteredPrimerPairs(int maxFilteredPrimerPairs) {
+        this.maxFilteredPrimerPairs = maxFilteredPrimerPairs;
     }
 
     public ArrayList<PrimerPair> getFilteredPrimerPairs() {
@@ -367,4 +839,13 @@ public class Primer3 {
     public ArrayList<String> getPrimer3Output() {
         return primer3Output;
     }
+    /**
+     * @return false if a tool failed during this design, so the outcome should not be reused
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+    public int getBlacklistedCandidates() {
+        return blacklistedCandidates;
+    }
 }
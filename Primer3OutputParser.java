@@ -0,0 +1,239 @@
+package nhs.genetics.cardiff;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.MissingFormatArgumentException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streaming Boulder-IO parser for Primer3 output. Reads straight from the process stream one record at a time and fills
+ * primer pairs by scanning the PRIMER_{PAIR|LEFT|RIGHT}_n[_FIELD]=value keys character by character.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class Primer3OutputParser {
+
+    private static final Logger log = Logger.getLogger(Primer3OutputParser.class.getName());
+    private static final int PAIR = 0, LEFT = 1, RIGHT = 2;
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position = 0, limit = 0;
+    private char[] line = new char[256];
+    private int lineLength;
+    private boolean terminated;
+    private long parseNanos;
+
+    public Primer3OutputParser(Reader reader){
+        this.reader = reader;
+    }
+
+    /**
+     * Parses the next record, up to a line containing only '=' or the end of the stream. Malformed pairs are skipped.
+     *
+     * @return primer pairs in the order returned by Primer3
+     */
+    public ArrayList<PrimerPair> parseRecord() throws IOException {
+
+        int primerNo = -1;
+        PrimerPair primerPair = null;
+        ArrayList<PrimerPair> primerPairs = new ArrayList<>();
+
+        terminated = false;
+
+        //cpu time excludes waiting on the stream for Primer3
+        long parseStart = getCpuNanos();
+
+        while (readLine()){
+
+            //end of record
+            if (lineLength == 1 && line[0] == '='){
+                terminated = true;
+                break;
+            }
+
+            int equals = indexOf('=');
+            int type, i;
+
+            //check record is primer
+            if (equals < 0 || !matches(0, "PRIMER_")){
+                logSummary();
+                continue;
+            } else if (matches(7, "PAIR_")){
+                type = PAIR;
+                i = 12;
+            } else if (matches(7, "LEFT_")){
+                type = LEFT;
+                i = 12;
+            } else if (matches(7, "RIGHT_")){
+                type = RIGHT;
+                i = 13;
+            } else {
+                logSummary();
+                continue;
+            }
+
+            //primer number
+            int digitsStart = i, index = 0;
+            while (i < equals && line[i] >= '0' && line[i] <= '9'){
+                index = index * 10 + (line[i++] - '0');
+            }
+
+            if (i == digitsStart || (i < equals && line[i] != '_')){
+                logSummary();
+                continue;
+            }
+
+            //check if this is a new record
+            if (index != primerNo){
+                addPrimerPair(primerPair, primerPairs);
+                primerPair = new PrimerPair();
+                primerNo = index;
+            }
+
+            if (equals + 1 < lineLength){
+                setField(primerPair, type, i == equals ? equals : i + 1, equals);
+            }
+        }
+
+        //dispose of last primer
+        addPrimerPair(primerPair, primerPairs);
+
+        parseNanos = getCpuNanos() - parseStart;
+
+        return primerPairs;
+    }
+
+    private void setField(PrimerPair primerPair, int type, int suffixStart, int equals){
+
+        String value = new String(line, equals + 1, lineLength - equals - 1);
+
+        if (type == PAIR){
+            if (suffixEquals(suffixStart, equals, "PENALTY")) primerPair.setPairPenalty(Double.parseDouble(value));
+            else if (suffixEquals(suffixStart, equals, "COMPL_ANY_TH")) primerPair.setComplAny(Double.parseDouble(value));
+            else if (suffixEquals(suffixStart, equals, "COMPL_END_TH")) primerPair.setComplEnd(Double.parseDouble(value));
+            else if (suffixEquals(suffixStart, equals, "PRODUCT_SIZE")) primerPair.setProductSize(Integer.parseInt(value));
+            return;
+        }
+
+        boolean left = type == LEFT;
+
+        if (suffixStart == equals){
+            if (left) primerPair.setLeftPosition(value); else primerPair.setRightPosition(value);
+        } else if (suffixEquals(suffixStart, equals, "SEQUENCE")){
+            if (left) primerPair.setLeftSequence(value); else primerPair.setRightSequence(value);
+        } else if (suffixEquals(suffixStart, equals, "PENALTY")){
+            if (left) primerPair.setLeftPenalty(Double.parseDouble(value)); else primerPair.setRightPenalty(Double.parseDouble(value));
+        } else if (suffixEquals(suffixStart, equals, "TM")){
+            if (left) primerPair.setLeftTm(Double.parseDouble(value)); else primerPair.setRightTm(Double.parseDouble(value));
+        } else if (suffixEquals(suffixStart, equals, "GC_PERCENT")){
+            if (left) primerPair.setLeftGC(Double.parseDouble(value)); else primerPair.setRightGC(Double.parseDouble(value));
+        } else if (suffixEquals(suffixStart, equals, "SELF_ANY_TH")){
+            if (left) primerPair.setLeftSelfAnyTh(Double.parseDouble(value)); else primerPair.setRightSelfAnyTh(Double.parseDouble(value));
+        } else if (suffixEquals(suffixStart, equals, "SELF_END_TH")){
+            if (left) primerPair.setLeftSelfEnd(Double.parseDouble(value)); else primerPair.setRightSelfEnd(Double.parseDouble(value));
+        } else if (suffixEquals(suffixStart, equals, "HAIRPIN_TH")){
+            if (left) primerPair.setLeftHairpin(Double.parseDouble(value)); else primerPair.setRightHairpin(Double.parseDouble(value));
+        } else if (suffixEquals(suffixStart, equals, "END_STABILITY")){
+            if (left) primerPair.setLeftEndStability(Double.parseDouble(value)); else primerPair.setRightEndStability(Double.parseDouble(value));
+        }
+
+    }
+
+    private static void addPrimerPair(PrimerPair primerPair, ArrayList<PrimerPair> primerPairs){
+
+        if (primerPair == null) return;
+
+        //skip null primers
+        try {
+            primerPair.checkRequiredFields();
+            primerPairs.add(primerPair);
+        } catch (MissingFormatArgumentException e){
+            log.log(Level.FINE, e.getMessage());
+        }
+
+    }
+
+    /**
+     * Reads the next line into the line buffer without the terminator
+     *
+     * @return false at the end of the stream
+     */
+    private boolean readLine() throws IOException {
+
+        lineLength = 0;
+
+        while (true){
+
+            if (position == limit){
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+
+                if (limit <= 0){
+                    limit = 0;
+                    return lineLength > 0;
+                }
+            }
+
+            char c = buffer[position++];
+
+            if (c == '\n') return true;
+            if (c == '\r') continue;
+
+            if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+            line[lineLength++] = c;
+        }
+
+    }
+
+    private int indexOf(char c){
+        for (int i = 0; i < lineLength; ++i){
+            if (line[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private boolean matches(int offset, String prefix){
+        if (offset + prefix.length() > lineLength) return false;
+        for (int i = 0; i < prefix.length(); ++i){
+            if (line[offset + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean suffixEquals(int from, int to, String suffix){
+        return to - from == suffix.length() && matches(from, suffix);
+    }
+
+    private void logSummary(){
+        //primer summary
+        if (log.isLoggable(Level.FINE)){
+            log.log(Level.FINE, new String(line, 0, lineLength));
+        }
+    }
+
+    private static long getCpuNanos(){
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * @return cpu time spent parsing the last record
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+    /**
+     * @return true if the last record ended with '=' rather than the end of the stream
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+}
@@ -0,0 +1,238 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of long-lived primer3_core processes. Boulder-IO records are streamed to an idle process and its output is
+ * parsed straight off the pipe up to the record terminator. Global tags persist between records so are only sent with
+ * the first record after a process starts. Dead processes are restarted before reuse. primer3_core block-buffers its
+ * output to a pipe, so each process runs under stdbuf from the PATH; without stdbuf a record could wait forever in
+ * primer3's buffer, so the pool refuses to start unless primer3Timeout is set.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class Primer3Pool implements Closeable {
+
+    private static final Logger log = Logger.getLogger(Primer3Pool.class.getName());
+
+    private Configuration configuration;
+    private File stdbuf; //null if not on the PATH
+    private final ArrayList<Worker> workers = new ArrayList<>();
+    private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+
+    public Primer3Pool(Configuration configuration, int size) throws IOException {
+        this.configuration = configuration;
+        this.stdbuf = findOnPath("stdbuf");
+
+        if (stdbuf == null){
+            if (configuration.getPrimer3Timeout() <= 0){
+                throw new IOException("stdbuf was not found on the PATH so Primer3 output cannot be line-buffered; install coreutils or set primer3Timeout");
+            }
+            log.log(Level.WARNING, "stdbuf was not found on the PATH; Primer3 records may only complete on timeout");
+        }
+
+        for (int n = 0; n < size; ++n){
+            Worker worker = new Worker(n + 1);
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+
+        log.log(Level.INFO, "Started Primer3 pool with " + size + " process(es)");
+    }
+
+    /**
+     * @param record Boulder-IO record of per-record tags terminated by a line containing only '='
+     * @return candidate primer pairs for this record
+     */
+    public ArrayList<PrimerPair> callPrimer3(String record) throws IOException, InterruptedException {
+        return callPrimer3(record, new DesignMetrics());
+    }
+
+    /**
+     * @param metrics receives the time spent parsing output
+     */
+    public ArrayList<PrimerPair> callPrimer3(String record, DesignMetrics metrics) throws IOException, InterruptedException {
+
+        Worker worker = idleWorkers.take();
+
+        try {
+
+            try {
+                return worker.exchange(record, metrics);
+            } catch (IOException e){
+                //process died mid-record; retry once on a fresh process
+                log.log(Level.WARNING, "Primer3 process " + worker.id + " failed, restarting: " + e.getMessage());
+                worker.restart();
+                return worker.exchange(record, metrics);
+            }
+
+        } catch (TimeoutException e){
+            //not retried; a record that hangs once will hang again
+            worker.stop();
+            throw new IOException(e.getMessage());
+        } catch (IOException | InterruptedException e){
+            worker.stop(); //started again on next use
+            throw e;
+        } finally {
+            idleWorkers.add(worker);
+        }
+
+    }
+
+    /**
+     * @return the executable in the first PATH directory holding it, or null
+     */
+    private static File findOnPath(String name){
+
+        String path = System.getenv("PATH");
+
+        if (path == null){
+            return null;
+        }
+
+        for (String directory : path.split(File.pathSeparator)){
+            File file = new File(directory, name);
+            if (file.canExecute()){
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close(){
+        synchronized (workers){
+            for (Worker worker : workers){
+                worker.stop();
+            }
+        }
+    }
+
+    private class Worker {
+
+        private final int id;
+        private Process process;
+        private BufferedWriter writer;
+        private Primer3OutputParser parser;
+        private boolean primed = false; //global tags sent to this process
+
+        private Worker(int id){
+            this.id = id;
+        }
+
+        private void start() throws IOException {
+
+            ArrayList<String> command = new ArrayList<>();
+
+            //primer3_core block-buffers stdout when writing to a pipe; force line buffering
+            if (stdbuf != null){
+                command.add(stdbuf.toString());
+                command.add("-oL");
+            }
+
+            command.add(configuration.getPrimer3FilePath().toString());
+            command.add("-p3_settings_file=" + configuration.getPrimer3Settings().getAbsolutePath());
+            command.add("-echo_settings_file");
+
+            process = new ProcessBuilder(command).start();
+            writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+            parser = new Primer3OutputParser(new InputStreamReader(process.getInputStream()));
+            primed = false;
+
+            //drain stderr so a chatty process cannot block
+            final BufferedReader stderr = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+            ProcessRunner.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    String line;
+                    try {
+                        while ((line = stderr.readLine()) != null) {
+                            log.log(Level.WARNING, "Primer3 process " + id + ": " + line);
+                        }
+                    } catch (IOException e){
+                        log.log(Level.FINE, e.toString());
+                    }
+                    return null;
+                }
+            });
+
+            log.log(Level.FINE, "Started Primer3 process " + id);
+        }
+
+        private ArrayList<PrimerPair> exchange(String record, DesignMetrics metrics) throws IOException, InterruptedException, TimeoutException {
+
+            //health check
+            if (process == null || !process.isAlive()){
+                if (process != null){
+                    log.log(Level.WARNING, "Primer3 process " + id + " exited with code " + process.exitValue() + ", restarting");
+                }
+                start();
+            }
+
+            //load the mispriming library and thermodynamic parameters once per process
+            if (!primed){
+                writer.write(Primer3.getGlobalTags(configuration));
+            }
+
+            writer.write(record);
+            writer.flush();
+            primed = true;
+
+            ArrayList<PrimerPair> primerPairs;
+            long timeoutSeconds = ProcessRunner.getRunner("primer3").getTimeoutSeconds();
+
+            if (timeoutSeconds > 0){
+
+                //parse on a pump thread so a hung process can be abandoned
+                final Primer3OutputParser parser = this.parser;
+                Future<ArrayList<PrimerPair>> future = ProcessRunner.submit(new Callable<ArrayList<PrimerPair>>() {
+                    @Override
+                    public ArrayList<PrimerPair> call() throws IOException {
+                        return parser.parseRecord();
+                    }
+                });
+
+                try {
+                    primerPairs = future.get(timeoutSeconds, TimeUnit.SECONDS);
+                } catch (TimeoutException e){
+                    throw new TimeoutException("Primer3 process " + id + " did not finish within " + timeoutSeconds + "s and was killed");
+                } catch (ExecutionException e){
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+
+            } else {
+                primerPairs = parser.parseRecord();
+            }
+
+            metrics.addTime(DesignMetrics.PRIMER3_PARSE, parser.getParseNanos());
+
+            if (parser.isTerminated()){
+                return primerPairs;
+            }
+
+            throw new IOException("Primer3 process " + id + " closed its output before the end of record");
+        }
+
+        private void restart() throws IOException {
+            stop();
+            start();
+        }
+
+        private void stop(){
+            if (process != null){
+                process.destroy();
+                process = null;
+            }
+        }
+
+    }
+
+}
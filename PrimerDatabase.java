@@ -1,35 +1,204 @@
 package nhs.genetics.cardiff;
 
-import java.io.File;
-import java.util.HashSet;
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Placeholder for linking primer output to database
+ * Embedded store of amplicons and their primers. Amplicons are held in memory behind an interval index so regions
+ * already covered can be served without designing. Each append is one checksummed record written under an exclusive
+ * file lock and forced to disk; a torn record left by a crash is ignored and overwritten by the next append, so a
+ * target's amplicons are stored all or not at all.
  *
  * @author  Matt Lyon
  * @version 1.0
  * @since   2015-06-04
  */
-public class PrimerDatabase { //TODO: link to actual primer database: placeholder
+public class PrimerDatabase implements Closeable {
 
     private static final Logger log = Logger.getLogger(PrimerDatabase.class.getName());
+    private static final int MAGIC = 0x50444241, VERSION = 2;
+    private static final int reindexThreshold = 1024; //unindexed amplicons scanned linearly before the index is rebuilt
 
-    public static HashSet<GenomicLocation> isROICoveredByAmplicon(File bedtoolsFilePath, File primerDatabaseFile, GenomicLocation target){
+    private RecordLog recordLog;
+    private final ArrayList<PrimerPair> amplicons = new ArrayList<>();
+    private final HashMap<String, Integer> keys = new HashMap<>(); //position of each stored amplicon
+    private IntervalIndex index;
+    private int indexed = 0; //amplicons below this position are in the index
 
-        HashSet<GenomicLocation> amplicons = new HashSet<>();
+    public PrimerDatabase(File databaseFile) throws IOException {
+        this.recordLog = new RecordLog(databaseFile, MAGIC, VERSION, true, new RecordLog.RecordReader() {
+            @Override
+            public void read(DataInputStream record) throws IOException {
+                int numberOfAmplicons = record.readInt();
+                for (int n = 0; n < numberOfAmplicons; ++n){
+                    addAmplicon(DesignCache.readPrimerPair(record));
+                }
+            }
+        });
+
+        reindex();
+
+        log.log(Level.INFO, "Loaded " + amplicons.size() + " amplicon(s) from " + databaseFile);
+    }
+
+    /**
+     * Finds stored amplicons which together cover every base of a 1-based target, using as few as possible
+     *
+     * @return the covering primer pairs or an empty list if the target is not fully covered
+     */
+    public synchronized ArrayList<PrimerPair> getCoveringAmplicons(GenomicLocation target) throws IOException {
+
+        //pick up amplicons appended by other processes
+        if (recordLog.hasNewRecords()){
+            recordLog.readNewRecords();
+        }
+
+        ArrayList<PrimerPair> candidates = new ArrayList<>();
+        GenomicLocation lookup = new GenomicLocation(target.getContig(), target.getStartPosition() - 1, target.getEndPosition());
+
+        for (int id : index.getOverlappingIds(lookup)){
+            candidates.add(amplicons.get(id));
+        }
+
+        for (int n = indexed; n < amplicons.size(); ++n){
+            GenomicLocation amplifiableRegion = amplicons.get(n).getAmplifiableRegion();
+            if (amplifiableRegion.getContig().equals(target.getContig()) && amplifiableRegion.getStartPosition() <= target.getEndPosition() &&
+                    amplifiableRegion.getEndPosition() >= target.getStartPosition()){
+                candidates.add(amplicons.get(n));
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<PrimerPair>() {
+            @Override
+            public int compare(PrimerPair a, PrimerPair b) {
+                return Integer.compare(a.getAmplifiableRegion().getStartPosition(), b.getAmplifiableRegion().getStartPosition());
+            }
+        });
+
+        //greedy cover; take the amplicon reaching furthest from the first uncovered base
+        ArrayList<PrimerPair> cover = new ArrayList<>();
+        int covered = target.getStartPosition() - 1, n = 0;
+
+        while (covered < target.getEndPosition()){
+
+            PrimerPair furthest = null;
+
+            for (; n < candidates.size() && candidates.get(n).getAmplifiableRegion().getStartPosition() <= covered + 1; ++n){
+                if (furthest == null || candidates.get(n).getAmplifiableRegion().getEndPosition() > furthest.getAmplifiableRegion().getEndPosition()){
+                    furthest = candidates.get(n);
+                }
+            }
+
+            if (furthest == null || furthest.getAmplifiableRegion().getEndPosition() <= covered){
+                return new ArrayList<>();
+            }
+
+            cover.add(furthest);
+            covered = furthest.getAmplifiableRegion().getEndPosition();
+        }
+
+        return cover;
+    }
+
+    /**
+     * Stores amplicons in a single transaction; amplicons already held are skipped
+     */
+    public synchronized void add(Collection<PrimerPair> primerPairs) throws IOException {
+
+        final ArrayList<PrimerPair> candidates = new ArrayList<>();
+        final ArrayList<PrimerPair> newAmplicons = new ArrayList<>();
 
-        for (String line : BedtoolsWrapper.getOverlappingFeatures(bedtoolsFilePath, primerDatabaseFile, target)) {
-            String[] fields = line.split("\t");
+        //served from the design cache or this database; no need to take the file lock
+        for (PrimerPair primerPair : primerPairs){
+            if (isNew(primerPair)){
+                candidates.add(primerPair);
+            }
+        }
+
+        if (candidates.size() == 0){
+            return;
+        }
+
+        recordLog.append(new RecordLog.RecordWriter() {
+            @Override
+            public boolean write(DataOutputStream record) throws IOException {
+
+                //check again now amplicons stored by other processes are read
+                for (PrimerPair primerPair : candidates){
+                    if (isNew(primerPair)){
+                        newAmplicons.add(primerPair);
+                    }
+                }
+
+                if (newAmplicons.size() == 0){
+                    return false;
+                }
 
-            //check if target is covered 100%
-            if (Integer.parseInt(fields[13]) == target.getEndPosition() - target.getStartPosition()) {
-                amplicons.add(new GenomicLocation(fields[3], Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), fields[6]));
+                record.writeInt(newAmplicons.size());
+
+                for (PrimerPair primerPair : newAmplicons){
+                    DesignCache.writePrimerPair(record, primerPair);
+                }
+
+                return true;
             }
+        });
+
+        for (PrimerPair primerPair : newAmplicons){
+            addAmplicon(primerPair);
+        }
+
+        if (amplicons.size() - indexed > reindexThreshold){
+            reindex();
+        }
+    }
 
+    private void addAmplicon(PrimerPair primerPair){
+
+        Integer position = keys.get(getKey(primerPair));
+
+        if (position == null){
+            keys.put(getKey(primerPair), amplicons.size());
+            amplicons.add(primerPair);
+        } else if (amplicons.get(position).getAlternatives().size() == 0 && primerPair.getAlternatives().size() > 0){
+            amplicons.set(position, primerPair); //designed again for pooling; same region so the index is unchanged
+        }
+    }
+
+    /**
+     * @return true if the amplicon is not stored, or is stored without the pool alternatives it now has
+     */
+    private boolean isNew(PrimerPair primerPair){
+        Integer position = keys.get(getKey(primerPair));
+        return position == null || (amplicons.get(position).getAlternatives().size() == 0 && primerPair.getAlternatives().size() > 0);
+    }
+
+    private void reindex(){
+
+        ArrayList<GenomicLocation> features = new ArrayList<>(amplicons.size());
+
+        for (PrimerPair primerPair : amplicons){
+            GenomicLocation amplifiableRegion = primerPair.getAmplifiableRegion();
+            features.add(new GenomicLocation(amplifiableRegion.getContig(), amplifiableRegion.getStartPosition() - 1, amplifiableRegion.getEndPosition()));
         }
 
-        return amplicons;
+        index = IntervalIndex.build(features);
+        indexed = amplicons.size();
+    }
+
+    private static String getKey(PrimerPair primerPair){
+        return primerPair.getAmplifiableRegion().getContig() + ":" + primerPair.getAmplifiableRegion().getStartPosition() + "-" +
+                primerPair.getAmplifiableRegion().getEndPosition() + ":" + primerPair.getLeftSequence() + ":" + primerPair.getRightSequence();
     }
 
+    @Override
+    public synchronized void close() throws IOException {
+        recordLog.close();
+    }
+
+    public File getDatabaseFile() {
+        return recordLog.getFile();
+    }
 }
@@ -0,0 +1,462 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the design pipeline for a single supplied target. Holds resources which can be shared between targets.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class PrimerDesigner implements Closeable {
+
+    private static final Logger log = Logger.getLogger(PrimerDesigner.class.getName());
+    private static final int minimumTileLength = 50;
+
+    private Configuration configuration;
+    private IntervalIndex exonsIndex;
+    private ReferenceCache referenceCache;
+    private VariantIndex variantIndex;
+    private Primer3Pool primer3Pool;
+    private AlignmentCache alignmentCache;
+    private DesignCache designCache;
+    private PrimerDatabase primerDatabase;
+    private KmerIndex kmerIndex;
+    private KmerBlacklist kmerBlacklist;
+    private ExecutorService tileExecutor, specificityExecutor;
+
+    public PrimerDesigner(Configuration configuration) throws IOException {
+        this.configuration = configuration;
+        this.referenceCache = new ReferenceCache(MappedFastaReader.getReader(configuration.getReferenceGenomeFasta(), new File(configuration.getReferenceGenomeFasta() + ".fai")), configuration.getReferenceCacheBytes());
+        this.exonsIndex = IntervalIndex.getIndex(configuration.getExonsBed());
+        this.variantIndex = VariantIndex.getIndex(configuration.getExcludedVariants(), configuration.getMaxIndelLength());
+        this.tileExecutor = Executors.newFixedThreadPool(configuration.getThreads());
+
+        //external tool limits
+        ProcessRunner.configure("primer3", configuration.getPrimer3Processes(), configuration.getPrimer3Timeout());
+        ProcessRunner.configure("blastn", configuration.getBlastnProcesses(), configuration.getBlastnTimeout());
+
+        //blastn runs for speculative specificity checks; the current and next window per design thread
+        if (configuration.getSpeculativeCandidates() > 1){
+            this.specificityExecutor = Executors.newFixedThreadPool(configuration.getThreads() * 2);
+        }
+
+        //specificity backend
+        if (configuration.getSpecificityBackend().equals("kmer")){
+            this.kmerIndex = KmerIndex.getIndex(configuration.getReferenceGenomeFasta(), configuration.getKmerSeedLength());
+            log.log(Level.INFO, "k-mer index finds full-length ungapped placements with up to " + configuration.getKmerMaxMismatches() +
+                    " mismatch(es) in primers of at least " + (configuration.getKmerMaxMismatches() + 1) * configuration.getKmerSeedLength() + " nt; blastn also reports gapped and partial hits");
+        } else if (!configuration.getSpecificityBackend().equals("blastn")){
+            throw new IllegalArgumentException("Unknown specificity backend: " + configuration.getSpecificityBackend());
+        }
+
+        //high-copy 3' k-mer prefilter
+        if (!configuration.getKmerBlacklistMode().equals("off")){
+            if (!configuration.getKmerBlacklistMode().equals("reject") && !configuration.getKmerBlacklistMode().equals("deprioritize")){
+                throw new IllegalArgumentException("Unknown k-mer blacklist mode: " + configuration.getKmerBlacklistMode());
+            }
+            this.kmerBlacklist = KmerBlacklist.getBlacklist(configuration.getReferenceGenomeFasta(), configuration.getKmerBlacklistLength(), configuration.getKmerBlacklistThreshold());
+        }
+
+        //persistent primer alignments
+        if (kmerIndex == null && configuration.getAlignmentCacheFile() != null){
+            try {
+                this.alignmentCache = new AlignmentCache(configuration.getAlignmentCacheFile(), configuration.getBlastnRefPath(), configuration.getMaxExactMatches(), configuration.getMinSimilarity());
+            } catch (IOException e){
+                log.log(Level.WARNING, "Could not open alignment cache, continuing without: " + e.getMessage());
+            }
+        }
+
+        //persistent design outcomes
+        if (configuration.getDesignCacheFile() != null && !configuration.isDebug()){
+            try {
+                this.designCache = new DesignCache(configuration.getDesignCacheFile(), configuration);
+            } catch (IOException e){
+                log.log(Level.WARNING, "Could not open design cache, continuing without: " + e.getMessage());
+            }
+        }
+
+        //stored amplicons
+        if (configuration.getPrimerDatabaseFile() != null && !configuration.isDebug()){
+            try {
+                this.primerDatabase = new PrimerDatabase(configuration.getPrimerDatabaseFile());
+            } catch (IOException e){
+                log.log(Level.WARNING, "Could not open primer database, continuing without: " + e.getMessage());
+            }
+        }
+
+        //debug output is formatted for reading and cannot be split into records
+        if (!configuration.isDebug()){
+            this.primer3Pool = new Primer3Pool(configuration, configuration.getPrimer3Processes());
+        }
+    }
+
+    public ArrayList<PrimerPair> designPrimers(GenomicLocation suppliedROI){ //1-based
+        return designPrimers(suppliedROI, new DesignMetrics());
+    }
+
+    /**
+     * @param metrics receives stage timings and counters for this target
+     */
+    public ArrayList<PrimerPair> designPrimers(GenomicLocation suppliedROI, final DesignMetrics metrics){ //1-based
+
+        ArrayList<PrimerPair> primerPairs = new ArrayList<>();
+        ArrayList<GenomicLocation> overlappingExonicRegionsOfInterest = new ArrayList<>();
+        ArrayList<GenomicLocation> mergedOverlappingExonicRegionsOfInterest = new ArrayList<>();
+        ArrayList<GenomicLocation> splitFinalRegionsOfInterest = new ArrayList<>();
+        ArrayList<Integer> tileRetries = new ArrayList<>();
+        ArrayList<ArrayList<PrimerPair>> storedPrimerPairs = new ArrayList<>(); //null where the region must be designed
+        ArrayList<PrimerPair> newPrimerPairs = new ArrayList<>();
+
+        GenomicLocation lookup = new GenomicLocation(suppliedROI.getContig(), suppliedROI.getStartPosition(), suppliedROI.getEndPosition());
+        lookup.convertTo0Based();
+
+        log.log(Level.INFO, "Designing primer pair to cover supplied region of interest " + lookup.getContig() + ":" + lookup.getStartPosition() + "-" + lookup.getEndPosition());
+
+        metrics.addCount(DesignMetrics.TARGETS, 1);
+
+        //find overlapping exons with ROI
+        long stageStart = System.nanoTime();
+        for (GenomicLocation feature : exonsIndex.getOverlappingFeatures(lookup)){
+
+            overlappingExonicRegionsOfInterest.add(new GenomicLocation(feature.getContig(), feature.getStartPosition(), feature.getEndPosition()));
+
+            log.log(Level.INFO, "Target overlaps with exon " + feature.getContig() + ":" + feature.getStartPosition() + "-" + feature.getEndPosition());
+        }
+
+        metrics.stop(DesignMetrics.EXON_INTERSECT, stageStart);
+
+        //loop over exonic overlaps and merge
+        stageStart = System.nanoTime();
+        if (overlappingExonicRegionsOfInterest.size() > 0){
+
+            //merge exonic overlaps
+            for (GenomicLocation mergedOverlappingExonicROI : new IntervalList(overlappingExonicRegionsOfInterest).merge().toGenomicLocations()) {
+
+                mergedOverlappingExonicRegionsOfInterest.add(mergedOverlappingExonicROI);
+
+                log.log(Level.INFO, "Exonic target(s) were merged into " + mergedOverlappingExonicROI.getContig() + ":" + mergedOverlappingExonicROI.getStartPosition() + "-" + mergedOverlappingExonicROI.getEndPosition());
+            }
+
+        } else {
+            log.log(Level.INFO, "Target does not overlap with any supplied exons");
+            mergedOverlappingExonicRegionsOfInterest.add(lookup); //could not find overlapping exons
+        }
+
+        metrics.stop(DesignMetrics.MERGE, stageStart);
+
+        //loop over final ROIs and split into amplifiable targets
+        for (GenomicLocation finalROI : mergedOverlappingExonicRegionsOfInterest){
+
+            //serve regions already covered by stored amplicons
+            ArrayList<PrimerPair> coveringAmplicons = getCoveringAmplicons(finalROI);
+
+            if (coveringAmplicons.size() > 0){
+
+                log.log(Level.INFO, "Target " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition() + " is covered by " + coveringAmplicons.size() + " stored amplicon(s)");
+                metrics.addCount(DesignMetrics.DATABASE_HITS, 1);
+
+                splitFinalRegionsOfInterest.add(finalROI);
+                tileRetries.add(0);
+                storedPrimerPairs.add(coveringAmplicons);
+
+            } else if (finalROI.getEndPosition() - finalROI.getStartPosition() > configuration.getMaxTargetLength()){
+
+                ArrayList<GenomicLocation> windows = TargetTiler.tile(finalROI, configuration.getMaxTargetLength(), configuration.getTileOverlap());
+
+                log.log(Level.WARNING, "Target " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition() + " exceeds max target length. Splitting into " + windows.size() + " fragments");
+
+                for (GenomicLocation window : windows){
+                    splitFinalRegionsOfInterest.add(window);
+                    tileRetries.add(configuration.getTileRetries());
+                    storedPrimerPairs.add(null);
+                }
+
+            } else {
+                splitFinalRegionsOfInterest.add(finalROI);
+                tileRetries.add(0);
+                storedPrimerPairs.add(null);
+            }
+
+        }
+
+        //exonic and split ROIs; designed concurrently when split
+        if (splitFinalRegionsOfInterest.size() == 1){
+
+            if (storedPrimerPairs.get(0) != null){
+                primerPairs.addAll(storedPrimerPairs.get(0));
+            } else {
+                newPrimerPairs.addAll(designTile(splitFinalRegionsOfInterest.get(0), tileRetries.get(0), metrics));
+                primerPairs.addAll(newPrimerPairs);
+            }
+
+            storePrimerPairs(newPrimerPairs);
+            metrics.addCount(DesignMetrics.PRIMER_PAIRS, primerPairs.size());
+            return primerPairs;
+        }
+
+        ArrayList<Future<ArrayList<PrimerPair>>> futures = new ArrayList<>();
+
+        for (int n = 0; n < splitFinalRegionsOfInterest.size(); ++n){
+
+            if (storedPrimerPairs.get(n) != null){
+                futures.add(null);
+                continue;
+            }
+
+            final GenomicLocation window = splitFinalRegionsOfInterest.get(n);
+            final int retries = tileRetries.get(n);
+
+            futures.add(tileExecutor.submit(new Callable<ArrayList<PrimerPair>>() {
+                @Override
+                public ArrayList<PrimerPair> call() {
+                    return designTile(window, retries, metrics);
+                }
+            }));
+        }
+
+        for (int n = 0; n < futures.size(); ++n){
+
+            if (storedPrimerPairs.get(n) != null){
+                primerPairs.addAll(storedPrimerPairs.get(n));
+                continue;
+            }
+
+            try {
+                ArrayList<PrimerPair> windowPrimerPairs = futures.get(n).get();
+                newPrimerPairs.addAll(windowPrimerPairs);
+                primerPairs.addAll(windowPrimerPairs);
+            } catch (ExecutionException e){
+                log.log(Level.SEVERE, "Could not design window: " + e.getCause());
+            } catch (InterruptedException e){
+                log.log(Level.SEVERE, e.toString());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        storePrimerPairs(newPrimerPairs);
+        metrics.addCount(DesignMetrics.PRIMER_PAIRS, primerPairs.size());
+
+        return primerPairs;
+    }
+
+    /**
+     * @param region 0-based
+     * @return stored amplicons covering the whole region, or an empty list
+     */
+    private ArrayList<PrimerPair> getCoveringAmplicons(GenomicLocation region){
+
+        if (primerDatabase == null){
+            return new ArrayList<>();
+        }
+
+        GenomicLocation target = new GenomicLocation(region.getContig(), region.getStartPosition(), region.getEndPosition());
+        target.convertTo1Based();
+
+        try {
+
+            ArrayList<PrimerPair> coveringAmplicons = primerDatabase.getCoveringAmplicons(target);
+
+            //amplicons stored without alternatives leave pool assembly nothing to swap
+            if (configuration.getPoolAlternatives() > 0){
+                for (PrimerPair primerPair : coveringAmplicons){
+                    if (primerPair.getAlternatives().size() == 0){
+                        log.log(Level.INFO, "Stored amplicons for " + target.getContig() + ":" + target.getStartPosition() + "-" + target.getEndPosition() + " have no pool alternatives, designing again");
+                        return new ArrayList<>();
+                    }
+                }
+            }
+
+            return coveringAmplicons;
+
+        } catch (IOException e){
+            log.log(Level.WARNING, "Could not read primer database: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Appends newly designed amplicons to the primer database in one transaction. Design cache hits are usually held
+     * already and are skipped by the database.
+     */
+    private void storePrimerPairs(ArrayList<PrimerPair> primerPairs){
+
+        if (primerDatabase == null || primerPairs.size() == 0 || Thread.currentThread().isInterrupted()){
+            return;
+        }
+
+        try {
+            primerDatabase.add(primerPairs);
+        } catch (IOException e){
+            log.log(Level.WARNING, "Could not write primer database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Designs a 0-based window; on failure the window is split into two overlapping halves and each designed in turn
+     */
+    private ArrayList<PrimerPair> designTile(GenomicLocation window, int retries, DesignMetrics metrics){
+
+        ArrayList<PrimerPair> primerPairs = new ArrayList<>();
+
+        //convert to 1-based
+        GenomicLocation finalROI = new GenomicLocation(window.getContig(), window.getStartPosition(), window.getEndPosition());
+        finalROI.convertTo1Based();
+
+        PrimerPair primerPair = designTarget(finalROI, metrics);
+
+        if (primerPair != null){
+            primerPairs.add(primerPair);
+        } else if (retries > 0 && !configuration.isDebug() && window.getEndPosition() - window.getStartPosition() >= 2 * minimumTileLength){
+
+            log.log(Level.INFO, "Adjusting tile boundaries for " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition());
+
+            for (GenomicLocation half : TargetTiler.split(window, configuration.getTileOverlap())){
+                primerPairs.addAll(designTile(half, retries - 1, metrics));
+            }
+
+        }
+
+        return primerPairs;
+    }
+
+    /**
+     * Designs a primer pair for a single 1-based target
+     *
+     * @return the specific primer pair or null if none could be found
+     */
+    private PrimerPair designTarget(GenomicLocation finalROI, DesignMetrics metrics){
+
+        log.log(Level.INFO, "Designing amplicon for target " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition());
+
+        metrics.addCount(DesignMetrics.TILES, 1);
+
+        //reuse an earlier design of this exact target
+        if (designCache != null){
+            try {
+                if (designCache.contains(finalROI)){
+                    log.log(Level.INFO, "Using cached design for target " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition());
+                    metrics.addCount(DesignMetrics.DESIGN_CACHE_HITS, 1);
+                    return designCache.get(finalROI);
+                }
+            } catch (IOException e){
+                log.log(Level.WARNING, "Could not read design cache: " + e.getMessage());
+            }
+        }
+
+        //get sequence
+        long stageStart = System.nanoTime();
+        ReferenceSequence sequence = new ReferenceSequence(finalROI, referenceCache, configuration.getPadding());
+        sequence.populateReferenceSequence();
+        metrics.stop(DesignMetrics.REFERENCE_FETCH, stageStart);
+
+        if (configuration.isDebug()) {
+            log.log(Level.INFO, "Reference: " + sequence.getReferenceSequence());
+        }
+
+        if (sequence.isRefAllNSites()) {
+            log.log(Level.WARNING, "Could not design primer for target containing all N-sites: " + finalROI.getContig() + ":" + finalROI.getStartPosition() + "-" + finalROI.getEndPosition());
+            return null;
+        }
+
+        //design primers
+        Primer3 primer3 = new Primer3(
+                sequence,
+                finalROI,
+                configuration
+        );
+        primer3.setAlignmentCache(alignmentCache);
+        primer3.setKmerIndex(kmerIndex);
+        primer3.setKmerBlacklist(kmerBlacklist);
+        primer3.setSpecificityExecutor(specificityExecutor);
+        primer3.setMetrics(metrics);
+        primer3.setMaxFilteredPrimerPairs(1 + configuration.getPoolAlternatives());
+        primer3.setExcludedRegions(variantIndex);
+
+        //specificity is checked page by page as candidates are requested
+        boolean paged = primer3Pool != null && !configuration.isDebug() && configuration.getPrimer3PageSize() > 0;
+
+        if (paged){
+            primer3.callPrimer3Paged(primer3Pool, configuration.getPrimer3PageSize());
+        } else if (primer3Pool != null){
+            primer3.callPrimer3(primer3Pool);
+        } else {
+            primer3.callPrimer3();
+        }
+
+        if (configuration.isDebug()){
+            try (PrintWriter p = new PrintWriter(finalROI.getContig() + "_" + finalROI.getStartPosition() + "_" + finalROI.getEndPosition() + "_primer3out.txt")) {
+                for (String line : primer3.getPrimer3Output()) {
+                    p.println(line);
+                }
+                p.close();
+            } catch (IOException e) {
+                log.log(Level.SEVERE, e.getMessage());
+            }
+            return null;
+        }
+
+        if (!paged){
+            primer3.checkPrimerAlignments();
+        }
+
+        PrimerPair primerPair = primer3.getFilteredPrimerPairs().size() > 0 ? primer3.getFilteredPrimerPairs().get(0) : null;
+
+        //keep lower-ranked specific pairs for pool assembly
+        if (primerPair != null){
+            primerPair.setAlternatives(new ArrayList<>(primer3.getFilteredPrimerPairs().subList(1, primer3.getFilteredPrimerPairs().size())));
+        }
+
+        //keep outcomes only when every tool ran; a failed run may succeed next time
+        if (designCache != null && primer3.isComplete() && !Thread.currentThread().isInterrupted()){
+            try {
+                designCache.put(finalROI, primerPair);
+            } catch (IOException e){
+                log.log(Level.WARNING, "Could not write design cache: " + e.getMessage());
+            }
+        }
+
+        return primerPair;
+    }
+
+    @Override
+    public void close(){
+        tileExecutor.shutdownNow();
+        if (specificityExecutor != null) specificityExecutor.shutdownNow();
+        log.log(Level.FINE, "Reference cache hits: " + referenceCache.getHits() + ", misses: " + referenceCache.getMisses() + ", evictions: " + referenceCache.getEvictions());
+        if (kmerBlacklist != null){
+            log.log(Level.INFO, "Candidate primer pairs with high-copy 3' k-mers: " + kmerBlacklist.getFlaggedCandidates() + " (" + configuration.getKmerBlacklistMode() + ")");
+        }
+        if (primer3Pool != null){
+            primer3Pool.close();
+        }
+        if (alignmentCache != null){
+            try {
+                alignmentCache.close();
+            } catch (IOException e){
+                log.log(Level.WARNING, e.toString());
+            }
+        }
+        if (primerDatabase != null){
+            try {
+                primerDatabase.close();
+            } catch (IOException e){
+                log.log(Level.WARNING, e.toString());
+            }
+        }
+        if (designCache != null){
+            try {
+                designCache.close();
+            } catch (IOException e){
+                log.log(Level.WARNING, e.toString());
+            }
+        }
+    }
+
+}
@@ -2,9 +2,7 @@ package nhs.genetics.cardiff;
 
 import java.util.ArrayList;
 import java.util.MissingFormatArgumentException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.regex.Pattern;
+
 /**
  * Class for holding PCR primer pairs
  *
@@ -14,84 +12,24 @@ import java.util.regex.Pattern;
  */
 public class PrimerPair {
 
-    private static final Logger log = Logger.getLogger(PrimerPair.class.getName());
-
-    private ArrayList<String> primer3Output = new ArrayList<>();
-
     private GenomicLocation amplifiableRegion;
 
     private double pairPenalty, leftPenalty, rightPenalty, leftTm, rightTm, leftGC, rightGC, leftSelfAnyTh, rightSelfAnyTh, leftSelfEnd,
             rightSelfEnd, leftHairpin, rightHairpin, leftEndStability, rightEndStability, complAny, complEnd;
     private String leftSequence, rightSequence, leftPosition, rightPosition;
     private int productSize;
+    private ArrayList<PrimerPair> alternatives = new ArrayList<>(); //lower-ranked specific pairs for the same target
 
-    public PrimerPair (ArrayList<String> primer3Output){
-        this.primer3Output = primer3Output;
+    public PrimerPair(){
     }
 
-    public void populatePrimerMetrics(){
-
-        log.log(Level.FINE, "Parsing Primer3 output ...");
-
-        //loop over primer3 output
-        for (String line : primer3Output){
-
-            String[] fields = line.split("=");
-
-            //extract fields
-            if (Pattern.matches("^PRIMER_PAIR_[0-9]+_PENALTY=.*", line)){
-                this.pairPenalty = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_PENALTY=.*", line)){
-                this.leftPenalty = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_PENALTY=.*", line)){
-                this.rightPenalty = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_SEQUENCE=.*", line)){
-                this.leftSequence = fields[1];
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_SEQUENCE=.*", line)){
-                this.rightSequence = fields[1];
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+=.*", line)){
-                this.leftPosition = fields[1];
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+=.*", line)){
-                this.rightPosition = fields[1];
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_TM=.*", line)){
-                this.leftTm = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_TM=.*", line)){
-                this.rightTm = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_GC_PERCENT=.*", line)){
-                this.leftGC = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_GC_PERCENT=.*", line)){
-                this.rightGC = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_SELF_ANY_TH=.*", line)){
-                this.leftSelfAnyTh = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_SELF_ANY_TH=.*", line)){
-                this.rightSelfAnyTh = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_SELF_END_TH=.*", line)){
-                this.leftSelfEnd = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_SELF_END_TH=.*", line)){
-                this.rightSelfEnd = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_HAIRPIN_TH=.*", line)){
-                this.leftHairpin = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_HAIRPIN_TH=.*", line)){
-                this.rightHairpin = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_LEFT_[0-9]+_END_STABILITY=.*", line)){
-                this.leftEndStability = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_RIGHT_[0-9]+_END_STABILITY=.*", line)){
-                this.rightEndStability = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_PAIR_[0-9]+_COMPL_ANY_TH=.*", line)){
-                this.complAny = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_PAIR_[0-9]+_COMPL_END_TH=.*", line)){
-                this.complEnd = Double.parseDouble(fields[1]);
-            } else if (Pattern.matches("^PRIMER_PAIR_[0-9]+_PRODUCT_SIZE=.*", line)){
-                this.productSize = Integer.parseInt(fields[1]);
-            }
-
-        }
-
-        //check if the minimum required fields are present
+    /**
+     * Checks the minimum required fields were returned by Primer3
+     */
+    public void checkRequiredFields(){
         if (leftSequence == null || rightSequence == null || leftPosition == null || rightPosition == null){
             throw new MissingFormatArgumentException("Primer pair was malformed");
         }
-
     }
 
     public double getPairPenalty() {
@@ -163,8 +101,80 @@ public class PrimerPair {
     public GenomicLocation getAmplifiableRegion() {
         return amplifiableRegion;
     }
+    public ArrayList<PrimerPair> getAlternatives() {
+        return alternatives;
+    }
 
     public void setAmplifiableRegion(GenomicLocation amplifiableRegion) {
         this.amplifiableRegion = amplifiableRegion;
     }
+    public void setPairPenalty(double pairPenalty) {
+        this.pairPenalty = pairPenalty;
+    }
+    public void setLeftPenalty(double leftPenalty) {
+        this.leftPenalty = leftPenalty;
+    }
+    public void setRightPenalty(double rightPenalty) {
+        this.rightPenalty = rightPenalty;
+    }
+    public void setLeftTm(double leftTm) {
+        this.leftTm = leftTm;
+    }
+    public void setRightTm(double rightTm) {
+        this.rightTm = rightTm;
+    }
+    public void setLeftGC(double leftGC) {
+        this.leftGC = leftGC;
+    }
+    public void setRightGC(double rightGC) {
+        this.rightGC = rightGC;
+    }
+    public void setLeftSelfAnyTh(double leftSelfAnyTh) {
+        this.leftSelfAnyTh = leftSelfAnyTh;
+    }
+    public void setRightSelfAnyTh(double rightSelfAnyTh) {
+        this.rightSelfAnyTh = rightSelfAnyTh;
+    }
+    public void setLeftSelfEnd(double leftSelfEnd) {
+        this.leftSelfEnd = leftSelfEnd;
+    }
+    public void setRightSelfEnd(double rightSelfEnd) {
+        this.rightSelfEnd = rightSelfEnd;
+    }
+    public void setLeftHairpin(double leftHairpin) {
+        this.leftHairpin = leftHairpin;
+    }
+    public void setRightHairpin(double rightHairpin) {
+        this.rightHairpin = rightHairpin;
+    }
+    public void setLeftEndStability(double leftEndStability) {
+        this.leftEndStability = leftEndStability;
+    }
+    public void setRightEndStability(double rightEndStability) {
+        this.rightEndStability = rightEndStability;
+    }
+    public void setComplAny(double complAny) {
+        this.complAny = complAny;
+    }
+    public void setComplEnd(double complEnd) {
+        this.complEnd = complEnd;
+    }
+    public void setLeftSequence(String leftSequence) {
+        this.leftSequence = leftSequence;
+    }
+    public void setRightSequence(String rightSequence) {
+        this.rightSequence = rightSequence;
+    }
+    public void setLeftPosition(String leftPosition) {
+        this.leftPosition = leftPosition;
+    }
+    public void setRightPosition(String rightPosition) {
+        this.rightPosition = rightPosition;
+    }
+    public void setProductSize(int productSize) {
+        this.productSize = productSize;
+    }
+    public void setAlternatives(ArrayList<PrimerPair> alternatives) {
+        this.alternatives = alternatives;
+    }
 }
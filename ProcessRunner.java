@@ -0,0 +1,236 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs external tools with stdin, stdout and stderr pumped concurrently so neither side can block on a full pipe.
+ * Each tool has its own limit on concurrent processes and a timeout after which the process is killed.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class ProcessRunner {
+
+    private static final Logger log = Logger.getLogger(ProcessRunner.class.getName());
+    private static final HashMap<String, ProcessRunner> runners = new HashMap<>();
+
+    //daemon threads so a stuck pipe never holds the JVM open
+    private static final ExecutorService pumps = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "process-pump");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final String tool;
+    private final Semaphore permits;
+    private final long timeoutSeconds;
+
+    /**
+     * Reads a process's stdout; anything left unread is drained afterwards
+     */
+    public interface OutputReader {
+        void read(InputStream stdout) throws IOException;
+    }
+
+    public static class Result {
+        private final int exitCode;
+        private final ArrayList<String> stdout;
+        private final String stderr;
+
+        private Result(int exitCode, ArrayList<String> stdout, String stderr){
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+        public ArrayList<String> getStdout() {
+            return stdout;
+        }
+        public String getStderr() {
+            return stderr;
+        }
+    }
+
+    private ProcessRunner(String tool, int maxProcesses, long timeoutSeconds){
+        this.tool = tool;
+        this.permits = maxProcesses > 0 ? new Semaphore(maxProcesses, true) : null;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Sets limits for a tool; runners already handed out keep their previous limits
+     *
+     * @param maxProcesses concurrent processes; 0 is unlimited
+     * @param timeoutSeconds wall time before the process is killed; 0 waits indefinitely
+     */
+    public static void configure(String tool, int maxProcesses, long timeoutSeconds){
+        synchronized (runners){
+            runners.put(tool, new ProcessRunner(tool, maxProcesses, timeoutSeconds));
+        }
+    }
+
+    /**
+     * @return runner for the tool; unlimited with no timeout if not configured
+     */
+    public static ProcessRunner getRunner(String tool){
+        synchronized (runners){
+
+            ProcessRunner runner = runners.get(tool);
+
+            if (runner == null){
+                runner = new ProcessRunner(tool, 0, 0);
+                runners.put(tool, runner);
+            }
+
+            return runner;
+        }
+    }
+
+    /**
+     * Runs the command to completion collecting stdout by line
+     */
+    public Result run(List<String> command, String input) throws IOException, InterruptedException {
+
+        final ArrayList<String> stdout = new ArrayList<>();
+
+        Result result = run(command, input, new OutputReader() {
+            @Override
+            public void read(InputStream in) throws IOException {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    stdout.add(line);
+                }
+            }
+        });
+
+        return new Result(result.exitCode, stdout, result.stderr);
+    }
+
+    /**
+     * Runs the command to completion. The process is killed if it times out or the calling thread is interrupted.
+     *
+     * @throws IOException if the process could not be started, timed out or its output could not be read
+     */
+    public Result run(List<String> command, final String input, final OutputReader outputReader) throws IOException, InterruptedException {
+
+        if (permits != null) permits.acquire();
+
+        Process process = null;
+
+        try {
+
+            process = new ProcessBuilder(command).start();
+
+            final Process started = process;
+
+            Future<Void> stdinPump = pumps.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(started.getOutputStream()))){
+                        writer.write(input);
+                    }
+                    return null;
+                }
+            });
+            Future<Void> stdoutPump = pumps.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try (InputStream stdout = started.getInputStream()){
+                        outputReader.read(stdout);
+                        drain(stdout);
+                    }
+                    return null;
+                }
+            });
+            Future<String> stderrPump = pumps.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    try (InputStream stderr = started.getErrorStream()){
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[4096];
+                        int length;
+                        while ((length = stderr.read(buffer)) != -1){
+                            bytes.write(buffer, 0, length);
+                        }
+                        return new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+                    }
+                }
+            });
+
+            if (timeoutSeconds > 0){
+                if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)){
+                    throw new IOException(tool + " did not finish within " + timeoutSeconds + "s and was killed");
+                }
+            } else {
+                process.waitFor();
+            }
+
+            String stderr = await(stderrPump);
+            await(stdoutPump);
+
+            //a tool failing early closes stdin; report its exit status rather than the broken pipe
+            try {
+                await(stdinPump);
+            } catch (IOException e){
+                if (process.exitValue() == 0) throw e;
+            }
+
+            if (!stderr.isEmpty()){
+                log.log(Level.FINE, tool + ": " + stderr);
+            }
+
+            return new Result(process.exitValue(), null, stderr);
+
+        } finally {
+            if (process != null && process.isAlive()){
+                process.destroyForcibly();
+            }
+            if (permits != null) permits.release();
+        }
+
+    }
+
+    /**
+     * Runs a task on the shared pump threads, e.g. reading from a long-lived process
+     */
+    static <T> Future<T> submit(Callable<T> task){
+        return pumps.submit(task);
+    }
+
+    private static <T> T await(Future<T> pump) throws IOException, InterruptedException {
+        try {
+            return pump.get();
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1){
+        }
+    }
+
+    public String getTool() {
+        return tool;
+    }
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+}
@@ -0,0 +1,188 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of checksummed records shared between processes. Each record is written whole under an exclusive
+ * file lock after reading any records other processes appended. A torn record left by a crash fails its length or
+ * checksum check, so readers stop before it and the next append truncates it.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class RecordLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(RecordLog.class.getName());
+    private static final int headerLength = 8;
+
+    private File file;
+    private FileChannel channel;
+    private RecordReader reader;
+    private boolean durable;
+    private long readOffset = headerLength;
+
+    public interface RecordReader {
+        void read(DataInputStream record) throws IOException;
+    }
+
+    public interface RecordWriter {
+        /**
+         * Called under the file lock once records from other processes have been read
+         *
+         * @return false if there is nothing to append
+         */
+        boolean write(DataOutputStream record) throws IOException;
+    }
+
+    /**
+     * Opens or creates the file and reads every record in it
+     *
+     * @param magic identifies the file's owner; a file with another magic or version is rejected
+     * @param durable force each append to disk before returning
+     */
+    public RecordLog(File file, int magic, int version, boolean durable, RecordReader reader) throws IOException {
+        this.file = file;
+        this.durable = durable;
+        this.reader = reader;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try (FileLock lock = channel.lock()){
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+
+            if (channel.size() == 0){
+                header.putInt(magic).putInt(version).flip();
+                while (header.hasRemaining()){
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            } else {
+                while (header.hasRemaining() && channel.read(header, header.position()) >= 0);
+                if (header.position() < headerLength || header.getInt(0) != magic || header.getInt(4) != version){
+                    channel.close();
+                    throw new IOException(file + " was written by another store or format version");
+                }
+            }
+
+            readNewRecords();
+        }
+    }
+
+    /**
+     * @return true if the file has grown past the last record read
+     */
+    public synchronized boolean hasNewRecords() throws IOException {
+        return channel.size() > readOffset;
+    }
+
+    /**
+     * Reads complete records appended since the last read
+     */
+    public synchronized void readNewRecords() throws IOException {
+
+        long size = channel.size();
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+        while (readOffset + 4 <= size){
+
+            lengthBuffer.clear();
+            channel.read(lengthBuffer, readOffset);
+            int length = lengthBuffer.getInt(0);
+
+            //partially written record
+            if (length < 4 || readOffset + 4 + length > size){
+                break;
+            }
+
+            ByteBuffer recordBuffer = ByteBuffer.allocate(length);
+            while (recordBuffer.hasRemaining()){
+                channel.read(recordBuffer, readOffset + 4 + recordBuffer.position());
+            }
+
+            //torn record
+            CRC32 crc = new CRC32();
+            crc.update(recordBuffer.array(), 4, length - 4);
+            if (recordBuffer.getInt(0) != (int) crc.getValue()){
+                break;
+            }
+
+            readOffset += 4 + length;
+
+            try {
+                reader.read(new DataInputStream(new ByteArrayInputStream(recordBuffer.array(), 4, length - 4)));
+            } catch (IOException e){
+                //intact but unreadable; skip rather than lose the records after it
+                log.log(Level.WARNING, "Skipping unreadable record in " + file + ": " + e);
+            }
+        }
+
+    }
+
+    /**
+     * Appends one record; anything past the last good record is a torn write and is overwritten
+     *
+     * @return false if the writer had nothing to append
+     */
+    public synchronized boolean append(RecordWriter writer) throws IOException {
+
+        try (FileLock lock = channel.lock()){
+
+            //catch up first so the writer sees records from other processes
+            readNewRecords();
+
+            //serialise record
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+
+            record.writeInt(0); //length placeholder
+            record.writeInt(0); //checksum placeholder
+
+            if (!writer.write(record)){
+                return false;
+            }
+
+            record.flush();
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 8, buffer.capacity() - 8);
+            buffer.putInt(0, buffer.capacity() - 4);
+            buffer.putInt(4, (int) crc.getValue());
+
+            if (channel.size() > readOffset){
+                log.log(Level.WARNING, "Discarding incomplete record at the end of " + file);
+                channel.truncate(readOffset);
+            }
+
+            long position = readOffset;
+            while (buffer.hasRemaining()){
+                position += channel.write(buffer, position);
+            }
+
+            if (durable){
+                channel.force(false);
+            }
+
+            readOffset = position;
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,216 @@
+package nhs.genetics.cardiff;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of reference blocks packed at two bits per base. Lowercase bases are kept as a run mask and
+ * anything other than A, C, G or T (N runs, IUPAC codes) as runs of the original byte, so sequence is returned exactly
+ * as stored in the FASTA.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class ReferenceCache {
+
+    private static final int blockSize = 16384;
+    private static final byte[] bases = {'A', 'C', 'G', 'T'};
+
+    private final MappedFastaReader reader;
+    private final long capacityBytes;
+    private long sizeBytes = 0;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+    private final LinkedHashMap<String, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static class Block {
+
+        private long[] packed;
+        private int[] lowerStarts, lowerLengths; //soft-masked runs
+        private int[] otherStarts, otherLengths; //runs of non-ACGT bytes
+        private byte[] otherBytes;
+
+        private long getSizeBytes(){
+            return 64 + packed.length * 8L + (lowerStarts.length + lowerLengths.length + otherStarts.length + otherLengths.length) * 4L + otherBytes.length;
+        }
+    }
+
+    public ReferenceCache(MappedFastaReader reader, long capacityBytes){
+        this.reader = reader;
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * @return bases between 1-based inclusive coordinates
+     */
+    public byte[] getSubsequenceAt(String contig, long start, long stop){
+
+        if (!reader.hasContig(contig)){
+            throw new IllegalArgumentException("Unable to find entry for contig: " + contig);
+        }
+        if (start < 1 || stop > reader.getContigLength(contig) || stop < start - 1){
+            throw new IllegalArgumentException("Malformed query; start: " + start + ", stop: " + stop + ", contig length: " + reader.getContigLength(contig));
+        }
+
+        byte[] sequence = new byte[(int) (stop - start + 1)];
+        long position = start - 1; //0-based
+        int copied = 0;
+
+        while (copied < sequence.length){
+
+            int blockIndex = (int) (position / blockSize);
+            int offset = (int) (position % blockSize);
+            int length = Math.min(blockSize - offset, sequence.length - copied);
+
+            unpack(getBlock(contig, blockIndex), offset, length, sequence, copied);
+
+            copied += length;
+            position += length;
+        }
+
+        return sequence;
+    }
+
+    private Block getBlock(String contig, int blockIndex){
+
+        String key = contig + ":" + blockIndex;
+        Block block;
+
+        synchronized (blocks){
+            block = blocks.get(key);
+        }
+
+        if (block != null){
+            hits.incrementAndGet();
+            return block;
+        }
+
+        misses.incrementAndGet();
+
+        //load outside the lock; concurrent loads of one block are harmless
+        long blockStart = (long) blockIndex * blockSize;
+        long blockEnd = Math.min(blockStart + blockSize, reader.getContigLength(contig));
+        block = pack(reader.getSubsequenceAt(contig, blockStart + 1, blockEnd));
+
+        synchronized (blocks){
+
+            if (blocks.put(key, block) == null){
+                sizeBytes += block.getSizeBytes();
+            }
+
+            //evict least recently used
+            Iterator<Map.Entry<String, Block>> it = blocks.entrySet().iterator();
+            while (sizeBytes > capacityBytes && it.hasNext()){
+                Map.Entry<String, Block> eldest = it.next();
+                if (eldest.getValue() == block) continue;
+                sizeBytes -= eldest.getValue().getSizeBytes();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+
+        }
+
+        return block;
+    }
+
+    private static Block pack(byte[] sequence){
+
+        Block block = new Block();
+        int lowerRuns = 0, otherRuns = 0;
+        int[] lowerStarts = new int[4], lowerLengths = new int[4], otherStarts = new int[4], otherLengths = new int[4];
+        byte[] otherBytes = new byte[4];
+
+        block.packed = new long[(sequence.length + 31) / 32];
+
+        for (int i = 0; i < sequence.length; ++i){
+
+            byte base = sequence[i];
+            int code = IndexFiles.encode(base);
+            boolean lower = base >= 'a';
+
+            if (code >= 0){
+
+                block.packed[i >> 5] |= (long) code << ((i & 31) << 1);
+
+                if (lower){
+                    if (lowerRuns > 0 && lowerStarts[lowerRuns - 1] + lowerLengths[lowerRuns - 1] == i){
+                        lowerLengths[lowerRuns - 1]++;
+                    } else {
+                        if (lowerRuns == lowerStarts.length){
+                            lowerStarts = Arrays.copyOf(lowerStarts, lowerRuns * 2);
+                            lowerLengths = Arrays.copyOf(lowerLengths, lowerRuns * 2);
+                        }
+                        lowerStarts[lowerRuns] = i;
+                        lowerLengths[lowerRuns++] = 1;
+                    }
+                }
+
+            } else {
+
+                if (otherRuns > 0 && otherBytes[otherRuns - 1] == base && otherStarts[otherRuns - 1] + otherLengths[otherRuns - 1] == i){
+                    otherLengths[otherRuns - 1]++;
+                } else {
+                    if (otherRuns == otherStarts.length){
+                        otherStarts = Arrays.copyOf(otherStarts, otherRuns * 2);
+                        otherLengths = Arrays.copyOf(otherLengths, otherRuns * 2);
+                        otherBytes = Arrays.copyOf(otherBytes, otherRuns * 2);
+                    }
+                    otherStarts[otherRuns] = i;
+                    otherLengths[otherRuns] = 1;
+                    otherBytes[otherRuns++] = base;
+                }
+
+            }
+        }
+
+        block.lowerStarts = Arrays.copyOf(lowerStarts, lowerRuns);
+        block.lowerLengths = Arrays.copyOf(lowerLengths, lowerRuns);
+        block.otherStarts = Arrays.copyOf(otherStarts, otherRuns);
+        block.otherLengths = Arrays.copyOf(otherLengths, otherRuns);
+        block.otherBytes = Arrays.copyOf(otherBytes, otherRuns);
+
+        return block;
+    }
+
+    private static void unpack(Block block, int offset, int length, byte[] destination, int destinationOffset){
+
+        int end = offset + length;
+
+        for (int i = offset; i < end; ++i){
+            destination[destinationOffset + i - offset] = bases[(int) (block.packed[i >> 5] >>> ((i & 31) << 1)) & 3];
+        }
+
+        for (int r = 0; r < block.lowerStarts.length; ++r){
+            int from = Math.max(offset, block.lowerStarts[r]), to = Math.min(end, block.lowerStarts[r] + block.lowerLengths[r]);
+            for (int i = from; i < to; ++i){
+                destination[destinationOffset + i - offset] += 32; //to lowercase
+            }
+        }
+
+        for (int r = 0; r < block.otherStarts.length; ++r){
+            int from = Math.max(offset, block.otherStarts[r]), to = Math.min(end, block.otherStarts[r] + block.otherLengths[r]);
+            for (int i = from; i < to; ++i){
+                destination[destinationOffset + i - offset] = block.otherBytes[r];
+            }
+        }
+
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+    public long getMisses() {
+        return misses.get();
+    }
+    public long getEvictions() {
+        return evictions.get();
+    }
+    public long getSizeBytes() {
+        synchronized (blocks){
+            return sizeBytes;
+        }
+    }
+}
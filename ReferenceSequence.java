@@ -1,17 +1,15 @@
 package nhs.genetics.cardiff;
 
-import htsjdk.samtools.reference.FastaSequenceIndex;
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import nhs.genetics.cardiff.framework.GenomicLocation;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Wrapper around htsjdk fasta functions. Extracts target from an indexed file.
+ * Extracts target from an indexed fasta file using the shared memory-mapped reader.
  *
  * @author  Matt Lyon
  * @version 1.0
@@ -24,6 +22,7 @@ public class ReferenceSequence {
     private String referenceSequence;
     private GenomicLocation location;
     private File fastaFilePath, indexFilePath;
+    private ReferenceCache referenceCache;
     private int padding = 0;
 
     public ReferenceSequence(GenomicLocation location, File fastaFilePath, File indexFilePath){
@@ -37,22 +36,23 @@ public class ReferenceSequence {
         this.indexFilePath = indexFilePath;
         this.padding = padding;
     }
+    public ReferenceSequence(GenomicLocation location, ReferenceCache referenceCache, int padding){
+        this.location = location;
+        this.referenceCache = referenceCache;
+        this.padding = padding;
+    }
 
     public void populateReferenceSequence(){ //1-based
 
-        //read fasta index
-        FastaSequenceIndex refGenomeIndex = new FastaSequenceIndex(indexFilePath);
-
-        //get fasta sequence
-        try(IndexedFastaSequenceFile refGenomeFasta = new IndexedFastaSequenceFile(fastaFilePath, refGenomeIndex)) {
-
-            //get sequence
-            byte[] bytes = refGenomeFasta.getSubsequenceAt(location.getContig(), location.getStartPosition() - padding, location.getEndPosition() + padding).getBases();
-            referenceSequence = new String(bytes, "UTF-8");
+        //get sequence from the block cache when available
+        if (referenceCache != null){
+            referenceSequence = new String(referenceCache.getSubsequenceAt(location.getContig(), location.getStartPosition() - padding, location.getEndPosition() + padding), StandardCharsets.US_ASCII);
+            return;
+        }
 
-            refGenomeFasta.close();
-        } catch (UnsupportedEncodingException e){
-            log.log(Level.SEVERE, "Problem converting nucleotide sequence: " + e.toString());
+        try {
+            byte[] bytes = MappedFastaReader.getReader(fastaFilePath, indexFilePath).getSubsequenceAt(location.getContig(), location.getStartPosition() - padding, location.getEndPosition() + padding);
+            referenceSequence = new String(bytes, StandardCharsets.US_ASCII);
         } catch(IOException e){
             log.log(Level.SEVERE, "Problem reading reference genome: " + e.toString());
         }
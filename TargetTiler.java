@@ -0,0 +1,58 @@
+package nhs.genetics.cardiff;
+
+import java.util.ArrayList;
+
+/**
+ * Splits regions of interest into overlapping windows no longer than the maximum target length
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class TargetTiler {
+
+    /**
+     * Evenly spaced windows covering a 0-based half-open region; the first and last windows are anchored to the region ends
+     */
+    public static ArrayList<GenomicLocation> tile(GenomicLocation regionOfInterest, int maxTargetLength, int overlap){
+
+        ArrayList<GenomicLocation> windows = new ArrayList<>();
+        int length = regionOfInterest.getEndPosition() - regionOfInterest.getStartPosition();
+
+        if (overlap >= maxTargetLength){
+            throw new IllegalArgumentException("Tile overlap must be less than the maximum target length");
+        }
+
+        if (length <= maxTargetLength){
+            windows.add(new GenomicLocation(regionOfInterest.getContig(), regionOfInterest.getStartPosition(), regionOfInterest.getEndPosition()));
+            return windows;
+        }
+
+        //fewest windows of at most maxTargetLength which overlap by at least overlap
+        int numberOfWindows = (int) Math.ceil((double) (length - overlap) / (maxTargetLength - overlap));
+        int windowLength = (int) Math.ceil((double) (length + (numberOfWindows - 1) * overlap) / numberOfWindows);
+
+        for (int n = 0; n < numberOfWindows; ++n){
+            int start = regionOfInterest.getStartPosition() + (int) Math.round((double) n * (length - windowLength) / (numberOfWindows - 1));
+            windows.add(new GenomicLocation(regionOfInterest.getContig(), start, start + windowLength));
+        }
+
+        return windows;
+    }
+
+    /**
+     * Two overlapping halves of a 0-based half-open window; used to move tile boundaries after a failed design
+     */
+    public static ArrayList<GenomicLocation> split(GenomicLocation window, int overlap){
+
+        ArrayList<GenomicLocation> halves = new ArrayList<>();
+        int length = window.getEndPosition() - window.getStartPosition();
+        int halfLength = (length + overlap + 1) / 2;
+
+        halves.add(new GenomicLocation(window.getContig(), window.getStartPosition(), window.getStartPosition() + halfLength));
+        halves.add(new GenomicLocation(window.getContig(), window.getEndPosition() - halfLength, window.getEndPosition()));
+
+        return halves;
+    }
+
+}
@@ -0,0 +1,647 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Nearest-neighbour thermodynamics (SantaLucia & Hicks 2004) for primer melting temperatures and secondary structures,
+ * so candidates can be re-scored without calling Primer3. Watson-Crick stack and loop parameters are read from the
+ * Primer3 thermodynamic parameters directory (stack.dh/ds, loops.dh/ds), falling back to the published values, and
+ * reaction conditions and structure limits are read from the Primer3 settings file. Structures are found by dynamic
+ * programming over Watson-Crick pairs joined by stacks, bulges and internal loops of up to {@link #maxLoop} bases a
+ * side, and are reported as melting temperatures. Kernels work on per-thread scratch arrays so scoring does not
+ * allocate.
+ *
+ * This is a simpler model than Primer3's thal: there are no mismatch or dangling-end terms and loops are short, so its
+ * values are not on the same scale as Primer3's _TH values and should only be compared with each other, e.g. as the
+ * change a tail makes to a primer. Melting temperatures take well under a microsecond, but hairpin and dimer scans take
+ * tens of microseconds, short of the thousands per millisecond first aimed for.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class Thermodynamics {
+
+    private static final Logger log = Logger.getLogger(Thermodynamics.class.getName());
+    private static final HashMap<String, Thermodynamics> engines = new HashMap<>();
+
+    private static final double R = 1.9872, temperature = 310.15; //cal/K/mol; structures are chosen by free energy at 37C
+    private static final double initiationH = 200, initiationS = -5.7, terminalATH = 2200, terminalATS = 6.9;
+    private static final int maxLoop = 3, maxTabulatedLoop = 30;
+
+    //SantaLucia & Hicks (2004) Watson-Crick stacks; cal/mol and cal/K/mol indexed by 5'-3' dinucleotide (A0 C1 G2 T3)
+    private static final double[] defaultStackH = {
+            -7600, -8400, -7800, -7200,
+            -8500, -8000, -10600, -7800,
+            -8200, -9800, -8000, -8400,
+            -7200, -8200, -8500, -7600
+    };
+    private static final double[] defaultStackS = {
+            -21.3, -22.4, -21.0, -20.4,
+            -22.7, -19.9, -27.2, -21.0,
+            -22.2, -24.4, -19.9, -22.4,
+            -21.3, -22.2, -22.7, -21.3
+    };
+
+    //loop free energies at 37C, kcal/mol, by loop length; missing lengths are interpolated
+    private static final double[][] defaultInteriorLoops = {{2, 0.5}, {3, 3.2}, {4, 3.6}, {5, 4.0}, {6, 4.4}, {7, 4.6}, {8, 4.8}, {9, 4.9}, {10, 4.9}, {12, 5.2}, {14, 5.4}, {16, 5.6}, {18, 5.8}, {20, 5.9}, {25, 6.3}, {30, 6.6}};
+    private static final double[][] defaultBulgeLoops = {{1, 4.0}, {2, 2.9}, {3, 3.1}, {4, 3.2}, {5, 3.3}, {6, 3.5}, {7, 3.7}, {8, 3.9}, {9, 4.1}, {10, 4.3}, {12, 4.5}, {14, 4.8}, {16, 5.0}, {18, 5.2}, {20, 5.3}, {25, 5.6}, {30, 5.9}};
+    private static final double[][] defaultHairpinLoops = {{3, 3.5}, {4, 3.5}, {5, 3.3}, {6, 4.0}, {7, 4.2}, {8, 4.3}, {9, 4.5}, {10, 4.6}, {12, 5.0}, {14, 5.1}, {16, 5.3}, {18, 5.5}, {20, 5.7}, {25, 6.1}, {30, 6.3}};
+    private static final double asymmetryS = -300 / temperature; //per unpaired base difference across an internal loop
+
+    private final double[] stackH = defaultStackH.clone(), stackS = defaultStackS.clone();
+    private final double[] interiorH = new double[maxTabulatedLoop + 1], interiorS = new double[maxTabulatedLoop + 1];
+    private final double[] bulgeH = new double[maxTabulatedLoop + 1], bulgeS = new double[maxTabulatedLoop + 1];
+    private final double[] hairpinH = new double[maxTabulatedLoop + 1], hairpinS = new double[maxTabulatedLoop + 1];
+
+    //reaction conditions and Primer3 defaults
+    private double monovalent = 50, divalent = 0, dntp = 0, dnaConcentration = 50; //mM and nM
+    private double maxHairpinTm = 47, maxSelfAnyTm = 47, maxSelfEndTm = 47, maxComplAnyTm = 47, maxComplEndTm = 47;
+    private double saltS, duplexS; //entropy corrections per stack and for strand concentration
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * Per-thread scratch space; grown only for sequences longer than any seen before
+     */
+    private static class Workspace {
+        private int width = 0;
+        private byte[] first = new byte[0], second = new byte[0], reversed = new byte[0];
+        private double[] enthalpies = new double[0], entropies = new double[0];
+        private double anyH, anyS, endH, endS;
+
+        private void ensureCapacity(int length){
+            if (length > width){
+                width = Math.max(length, 64);
+                first = new byte[width];
+                second = new byte[width];
+                reversed = new byte[width];
+                enthalpies = new double[width * width];
+                entropies = new double[width * width];
+            }
+        }
+    }
+
+    private Thermodynamics(){
+        fillLoops(defaultInteriorLoops, interiorH, interiorS);
+        fillLoops(defaultBulgeLoops, bulgeH, bulgeS);
+        fillLoops(defaultHairpinLoops, hairpinH, hairpinS);
+    }
+
+    /**
+     * Shared engine for the configured parameters and settings; loaded once per process
+     */
+    public static Thermodynamics getThermodynamics(Configuration configuration){
+        synchronized (engines){
+
+            String key = configuration.getPrimerThermodynamicPararmetersPath() + "\t" + configuration.getPrimer3Settings();
+            Thermodynamics thermodynamics = engines.get(key);
+
+            if (thermodynamics == null){
+                thermodynamics = new Thermodynamics();
+                thermodynamics.readParameters(configuration.getPrimerThermodynamicPararmetersPath());
+                thermodynamics.readSettings(configuration.getPrimer3Settings());
+                thermodynamics.setConditions();
+                engines.put(key, thermodynamics);
+            }
+
+            return thermodynamics;
+        }
+    }
+
+    /**
+     * Two-state melting temperature of a primer with its complement
+     */
+    public double getTm(CharSequence sequence){
+
+        Workspace workspace = workspaces.get();
+        int length = encode(sequence, workspace);
+        byte[] codes = workspace.first;
+
+        for (int n = 0; n < length; ++n){
+            if (codes[n] < 0) return 0;
+        }
+
+        double h = initiationH + getTerminalH(codes[0]) + getTerminalH(codes[length - 1]);
+        double s = initiationS + getTerminalS(codes[0]) + getTerminalS(codes[length - 1]);
+
+        for (int n = 0; n < length - 1; ++n){
+            h += stackH[(codes[n] << 2) | codes[n + 1]];
+            s += stackS[(codes[n] << 2) | codes[n + 1]] + saltS;
+        }
+
+        return h / (s + duplexS) - 273.15;
+    }
+
+    /**
+     * @return melting temperature of the most stable hairpin, or 0 if none forms
+     */
+    public double getHairpinTm(CharSequence sequence){
+
+        Workspace workspace = workspaces.get();
+        int length = encode(sequence, workspace);
+
+        foldHairpin(workspace.first, length, workspace);
+
+        return workspace.anyS < 0 ? Math.max(0, workspace.anyH / workspace.anyS - 273.15) : 0;
+    }
+
+    /**
+     * @param end only structures pairing the 3' end of either sequence, as for Primer3's END_TH
+     * @return melting temperature of the most stable dimer, or 0 if none forms
+     */
+    public double getDimerTm(CharSequence first, CharSequence second, boolean end){
+
+        Workspace workspace = workspaces.get();
+        int firstLength = first.length(), secondLength = second.length();
+
+        workspace.ensureCapacity(Math.max(firstLength, secondLength));
+        encode(first, workspace.first);
+        encode(second, workspace.second);
+
+        alignDimer(workspace.first, firstLength, reverse(workspace.second, secondLength, workspace), secondLength, workspace);
+
+        double h = end ? workspace.endH : workspace.anyH, s = end ? workspace.endS : workspace.anyS;
+
+        //second sequence's 3' end; any structure is the same either way round
+        if (end){
+            alignDimer(workspace.second, secondLength, reverse(workspace.first, firstLength, workspace), firstLength, workspace);
+            if (workspace.endH - temperature * workspace.endS < h - temperature * s){
+                h = workspace.endH;
+                s = workspace.endS;
+            }
+        }
+
+        return s < 0 ? Math.max(0, h / (s + duplexS) - 273.15) : 0;
+    }
+
+    /**
+     * Free energy at 37C of the contiguous duplex formed by the 3' end of one encoded primer pairing from a position of
+     * another; used to screen pools quickly
+     *
+     * @param position where the last base of the first primer pairs on the second
+     */
+    public double getAnchoredDeltaG(byte[] primer, byte[] partner, int position){
+
+        int length = 0;
+
+        while (length < primer.length && position + length < partner.length && isPair(primer[primer.length - 1 - length], partner[position + length])){
+            ++length;
+        }
+
+        if (length < 2){
+            return 0;
+        }
+
+        int first = primer.length - length, last = primer.length - 1;
+        double h = initiationH + getTerminalH(primer[first]) + getTerminalH(primer[last]);
+        double s = initiationS + getTerminalS(primer[first]) + getTerminalS(primer[last]);
+
+        for (int n = first; n < last; ++n){
+            h += stackH[(primer[n] << 2) | primer[n + 1]];
+            s += stackS[(primer[n] << 2) | primer[n + 1]] + saltS;
+        }
+
+        return (h - temperature * s) / 1000;
+    }
+
+    /**
+     * Best duplex of a (5'-3') against b (3'-5') ending at each pair; fills the workspace with the most stable structure
+     * overall and the most stable pairing the last base of a
+     */
+    private void alignDimer(byte[] a, int aLength, byte[] b, int bLength, Workspace workspace){
+
+        double[] enthalpies = workspace.enthalpies, entropies = workspace.entropies;
+        int width = workspace.width;
+        double anyG = 0, endG = 0;
+
+        workspace.anyH = workspace.anyS = workspace.endH = workspace.endS = 0;
+
+        for (int i = 0; i < aLength; ++i){
+            for (int j = 0; j < bLength; ++j){
+
+                int cell = i * width + j;
+
+                if (!isPair(a[i], b[j])){
+                    enthalpies[cell] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+
+                //open a helix here
+                double h = initiationH + getTerminalH(a[i]), s = initiationS + getTerminalS(a[i]), g = h - temperature * s;
+
+                //extend a helix ending at an earlier pair
+                for (int p = 1; p <= maxLoop + 1 && p <= i; ++p){
+                    for (int q = 1; q <= maxLoop + 1 && q <= j; ++q){
+
+                        int previous = cell - p * width - q;
+                        if (enthalpies[previous] == Double.POSITIVE_INFINITY) continue;
+
+                        double loopH = enthalpies[previous], loopS = entropies[previous];
+
+                        if (p == 1 && q == 1){
+                            loopH += stackH[(a[i - 1] << 2) | a[i]];
+                            loopS += stackS[(a[i - 1] << 2) | a[i]] + saltS;
+                        } else {
+                            loopH += getLoopH(p - 1, q - 1);
+                            loopS += getLoopS(p - 1, q - 1);
+                        }
+
+                        if (loopH - temperature * loopS < g){
+                            h = loopH;
+                            s = loopS;
+                            g = h - temperature * s;
+                        }
+                    }
+                }
+
+                enthalpies[cell] = h;
+                entropies[cell] = s;
+
+                //close the helix at this pair
+                h += getTerminalH(a[i]);
+                s += getTerminalS(a[i]);
+                g = h - temperature * s;
+
+                if (g < anyG){
+                    anyG = g;
+                    workspace.anyH = h;
+                    workspace.anyS = s;
+                }
+
+                if (i == aLength - 1 && g < endG){
+                    endG = g;
+                    workspace.endH = h;
+                    workspace.endS = s;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Best single stem-loop; fills the workspace with the most stable structure
+     */
+    private void foldHairpin(byte[] a, int length, Workspace workspace){
+
+        double[] enthalpies = workspace.enthalpies, entropies = workspace.entropies;
+        int width = workspace.width;
+        double bestG = 0;
+
+        workspace.anyH = workspace.anyS = 0;
+
+        //inner pairs first
+        for (int i = length - 1; i >= 0; --i){
+            for (int j = i + 4; j < length; ++j){
+
+                int cell = i * width + j;
+
+                if (!isPair(a[i], a[j])){
+                    enthalpies[cell] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+
+                //close a loop
+                double h = getHairpinH(j - i - 1), s = getHairpinS(j - i - 1), g = h - temperature * s;
+
+                //or enclose an inner pair
+                for (int p = 1; p <= maxLoop + 1; ++p){
+                    for (int q = 1; q <= maxLoop + 1 && j - q - (i + p) >= 4; ++q){
+
+                        int inner = (i + p) * width + j - q;
+                        if (enthalpies[inner] == Double.POSITIVE_INFINITY) continue;
+
+                        double loopH = enthalpies[inner], loopS = entropies[inner];
+
+                        if (p == 1 && q == 1){
+                            loopH += stackH[(a[i] << 2) | a[i + 1]];
+                            loopS += stackS[(a[i] << 2) | a[i + 1]] + saltS;
+                        } else {
+                            loopH += getLoopH(p - 1, q - 1);
+                            loopS += getLoopS(p - 1, q - 1);
+                        }
+
+                        if (loopH - temperature * loopS < g){
+                            h = loopH;
+                            s = loopS;
+                            g = h - temperature * s;
+                        }
+                    }
+                }
+
+                enthalpies[cell] = h;
+                entropies[cell] = s;
+
+                h += getTerminalH(a[i]);
+                s += getTerminalS(a[i]);
+                g = h - temperature * s;
+
+                if (g < bestG){
+                    bestG = g;
+                    workspace.anyH = h;
+                    workspace.anyS = s;
+                }
+            }
+        }
+
+    }
+
+    private double getLoopH(int k, int l){
+        return k == 0 || l == 0 ? getTabulated(bulgeH, k + l) : getTabulated(interiorH, k + l);
+    }
+
+    private double getLoopS(int k, int l){
+        return k == 0 || l == 0 ? getExtrapolatedS(bulgeS, k + l) : getExtrapolatedS(interiorS, k + l) + asymmetryS * Math.abs(k - l);
+    }
+
+    private double getHairpinH(int length){
+        return length < 3 ? Double.POSITIVE_INFINITY : getTabulated(hairpinH, length);
+    }
+
+    private double getHairpinS(int length){
+        return getExtrapolatedS(hairpinS, length);
+    }
+
+    private static double getTabulated(double[] values, int length){
+        return values[Math.min(length, maxTabulatedLoop)];
+    }
+
+    /**
+     * Loops longer than the tables lose entropy logarithmically (Jacobson-Stockmayer)
+     */
+    private static double getExtrapolatedS(double[] values, int length){
+        return length <= maxTabulatedLoop ? values[length] : values[maxTabulatedLoop] - 2.44 * R * Math.log((double) length / maxTabulatedLoop);
+    }
+
+    private static double getTerminalH(byte base){
+        return base == 0 || base == 3 ? terminalATH : 0;
+    }
+
+    private static double getTerminalS(byte base){
+        return base == 0 || base == 3 ? terminalATS : 0;
+    }
+
+    private static boolean isPair(byte first, byte second){
+        return first >= 0 && second >= 0 && first + second == 3;
+    }
+
+    private static int encode(CharSequence sequence, Workspace workspace){
+        workspace.ensureCapacity(sequence.length());
+        encode(sequence, workspace.first);
+        return sequence.length();
+    }
+
+    private static byte[] reverse(byte[] codes, int length, Workspace workspace){
+        for (int n = 0; n < length; ++n){
+            workspace.reversed[n] = codes[length - 1 - n];
+        }
+        return workspace.reversed;
+    }
+
+    private static void encode(CharSequence sequence, byte[] codes){
+        for (int n = 0; n < sequence.length(); ++n){
+            codes[n] = (byte) IndexFiles.encode(sequence.charAt(n));
+        }
+    }
+
+    /**
+     * 2-bit codes (A0 C1 G2 T3); other bases are -1 and never pair
+     */
+    public static byte[] encode(String sequence){
+        byte[] codes = new byte[sequence.length()];
+        encode(sequence, codes);
+        return codes;
+    }
+
+    /**
+     * Loop free energies are tabulated at 37C; stored as entropy with zero enthalpy
+     */
+    private static void fillLoops(double[][] deltaGs, double[] enthalpies, double[] entropies){
+
+        for (int n = 0; n <= maxTabulatedLoop; ++n){
+
+            int k = 0;
+            while (k < deltaGs.length - 1 && deltaGs[k + 1][0] <= n) ++k;
+
+            double deltaG;
+            if (n <= deltaGs[0][0]){
+                deltaG = deltaGs[0][1];
+            } else if (k == deltaGs.length - 1){
+                deltaG = deltaGs[k][1];
+            } else {
+                deltaG = deltaGs[k][1] + (deltaGs[k + 1][1] - deltaGs[k][1]) * (n - deltaGs[k][0]) / (deltaGs[k + 1][0] - deltaGs[k][0]);
+            }
+
+            enthalpies[n] = 0;
+            entropies[n] = -deltaG * 1000 / temperature;
+        }
+    }
+
+    /**
+     * Reads Watson-Crick stacks and loop lengths from the Primer3 tables; each file is used only if it looks sane
+     */
+    private void readParameters(File parametersPath){
+
+        if (parametersPath == null || !parametersPath.isDirectory()){
+            log.log(Level.INFO, "Using built-in nearest-neighbour parameters");
+            return;
+        }
+
+        try {
+
+            double[] enthalpies = readStack(new File(parametersPath, "stack.dh"));
+            double[] entropies = readStack(new File(parametersPath, "stack.ds"));
+
+            //tables may be in cal or kcal; infer from the AA/TT stack
+            double scaleH = Math.abs(enthalpies[0]) < 100 ? 1000 : Math.abs(enthalpies[0]) < 2000 ? 10 : 1;
+            double scaleS = Math.abs(entropies[0]) < 1 ? 1000 : 1;
+
+            for (int n = 0; n < 16; ++n){
+                enthalpies[n] *= scaleH;
+                entropies[n] *= scaleS;
+                if (!(enthalpies[n] < 0 && entropies[n] < 0 && enthalpies[n] - temperature * entropies[n] < 0)){
+                    throw new IOException("unexpected stack parameters");
+                }
+            }
+
+            System.arraycopy(enthalpies, 0, stackH, 0, 16);
+            System.arraycopy(entropies, 0, stackS, 0, 16);
+
+        } catch (IOException | NumberFormatException e){
+            log.log(Level.WARNING, "Could not read stack parameters from " + parametersPath + ", using built-in values: " + e.getMessage());
+        }
+
+        try {
+            readLoops(new File(parametersPath, "loops.ds"), new File(parametersPath, "loops.dh"));
+        } catch (IOException | NumberFormatException e){
+            log.log(Level.WARNING, "Could not read loop parameters from " + parametersPath + ", using built-in values: " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Primer3 stack tables list 4^4 values for 5'-XY-3'/3'-X'Y'-5'; returns the 16 Watson-Crick stacks
+     */
+    private static double[] readStack(File file) throws IOException {
+
+        ArrayList<Double> values = readValues(file);
+        double[] stacks = new double[16];
+
+        if (values.size() != 256){
+            throw new IOException(file.getName() + " has " + values.size() + " values, expected 256");
+        }
+
+        for (int x = 0; x < 4; ++x){
+            for (int y = 0; y < 4; ++y){
+                stacks[(x << 2) | y] = values.get((((x << 2) | y) << 4) | ((3 - x) << 2) | (3 - y));
+            }
+        }
+
+        return stacks;
+    }
+
+    /**
+     * Primer3 loop tables have a line per length: length, interior, bulge and hairpin
+     */
+    private void readLoops(File entropyFile, File enthalpyFile) throws IOException {
+
+        ArrayList<Double> entropies = readValues(entropyFile);
+        ArrayList<Double> enthalpies = enthalpyFile.exists() ? readValues(enthalpyFile) : null;
+
+        if (entropies.size() < 4 * maxTabulatedLoop || (enthalpies != null && enthalpies.size() != entropies.size())){
+            throw new IOException("unexpected loop table length");
+        }
+
+        //check before replacing; destabilising loops lose entropy
+        for (int n = 0; n < entropies.size(); n += 4){
+            if (!Double.isInfinite(entropies.get(n + 3)) && entropies.get(n + 3) >= 0){
+                throw new IOException("unexpected loop parameters");
+            }
+        }
+
+        for (int n = 0; n < entropies.size(); n += 4){
+
+            int length = (int) Math.round(entropies.get(n));
+            if (length < 1 || length > maxTabulatedLoop) continue;
+
+            for (int t = 0; t < 3; ++t){
+                double value = entropies.get(n + 1 + t);
+                if (Double.isInfinite(value)) continue;
+                double enthalpy = enthalpies == null || Double.isInfinite(enthalpies.get(n + 1 + t)) ? 0 : enthalpies.get(n + 1 + t);
+                if (t == 0){
+                    interiorS[length] = value;
+                    interiorH[length] = enthalpy;
+                } else if (t == 1){
+                    bulgeS[length] = value;
+                    bulgeH[length] = enthalpy;
+                } else {
+                    hairpinS[length] = value;
+                    hairpinH[length] = enthalpy;
+                }
+            }
+        }
+
+    }
+
+    private static ArrayList<Double> readValues(File file) throws IOException {
+
+        String line;
+        ArrayList<Double> values = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))){
+            while ((line = reader.readLine()) != null){
+                for (String field : line.trim().split("\\s+")){
+                    if (field.equals("")) continue;
+                    values.add(field.equals("inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(field));
+                }
+            }
+            reader.close();
+        }
+
+        return values;
+    }
+
+    /**
+     * Reads salt and oligo concentrations and the secondary structure limits from the Primer3 settings file
+     */
+    private void readSettings(File primer3Settings){
+
+        if (primer3Settings == null || !primer3Settings.exists()){
+            return;
+        }
+
+        String line;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(primer3Settings))){
+
+            while ((line = reader.readLine()) != null){
+
+                String[] fields = line.split("=");
+                if (fields.length != 2) continue;
+
+                try {
+                    if (fields[0].equals("PRIMER_SALT_MONOVALENT")){
+                        monovalent = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_SALT_DIVALENT")){
+                        divalent = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_DNTP_CONC")){
+                        dntp = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_DNA_CONC")){
+                        dnaConcentration = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_MAX_HAIRPIN_TH")){
+                        maxHairpinTm = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_MAX_SELF_ANY_TH")){
+                        maxSelfAnyTm = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_MAX_SELF_END_TH")){
+                        maxSelfEndTm = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_PAIR_MAX_COMPL_ANY_TH")){
+                        maxComplAnyTm = Double.parseDouble(fields[1]);
+                    } else if (fields[0].equals("PRIMER_PAIR_MAX_COMPL_END_TH")){
+                        maxComplEndTm = Double.parseDouble(fields[1]);
+                    }
+                } catch (NumberFormatException e){
+                    log.log(Level.WARNING, "Could not parse Primer3 setting " + line);
+                }
+            }
+
+            reader.close();
+
+        } catch (IOException e){
+            log.log(Level.WARNING, "Could not read Primer3 settings for thermodynamics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Divalent cations are converted to monovalent equivalents (von Ahsen et al. 2001) as Primer3 does
+     */
+    private void setConditions(){
+        double sodium = monovalent + 120 * Math.sqrt(Math.max(0, divalent - dntp));
+        saltS = 0.368 * Math.log(sodium / 1000);
+        duplexS = R * Math.log(dnaConcentration / 4e9);
+    }
+
+    public double getMaxHairpinTm() {
+        return maxHairpinTm;
+    }
+    public double getMaxSelfAnyTm() {
+        return maxSelfAnyTm;
+    }
+    public double getMaxSelfEndTm() {
+        return maxSelfEndTm;
+    }
+    public double getMaxComplAnyTm() {
+        return maxComplAnyTm;
+    }
+    public double getMaxComplEndTm() {
+        return maxComplEndTm;
+    }
+}
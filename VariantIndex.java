@@ -0,0 +1,344 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compact index of positions to exclude from primer design. Built once from a VCF: SNPs and indels up to the maximum
+ * indel length are converted to genomic spans, coalesced and stored per contig as delta-encoded varints with a
+ * checkpoint every 64 spans. Each contig is written as soon as its variants are read, so the VCF must be grouped by
+ * contig. Each contig section is memory-mapped and range queries decode only the blocks they touch.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+public class VariantIndex {
+
+    private static final Logger log = Logger.getLogger(VariantIndex.class.getName());
+    private static final int MAGIC = 0x50445649, VERSION = 2, checkpointInterval = 64;
+    private static final HashMap<String, VariantIndex> indexes = new HashMap<>();
+
+    private final HashMap<String, Contig> contigs = new HashMap<>();
+
+    private static class Contig {
+        private int numberOfSpans, numberOfCheckpoints;
+        private int dataOffset; //checkpoints start the section
+        private MappedByteBuffer buffer;
+    }
+
+    /**
+     * Growable coalescing span list used while building
+     */
+    private static class SpanList {
+
+        private int[] starts = new int[1024], ends = new int[1024];
+        private int size = 0;
+        private boolean sorted = true;
+
+        private void add(int start, int end){
+
+            //extend previous span when overlapping or adjacent; input VCFs are normally sorted
+            if (size > 0 && start >= starts[size - 1] && start <= ends[size - 1] + 1){
+                ends[size - 1] = Math.max(ends[size - 1], end);
+                return;
+            }
+
+            if (size > 0 && start < starts[size - 1]) sorted = false;
+
+            if (size == starts.length){
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+
+            starts[size] = start;
+            ends[size++] = end;
+        }
+
+        private void coalesce(){
+
+            if (sorted) return;
+
+            long[] keys = new long[size];
+            for (int i = 0; i < size; ++i){
+                keys[i] = ((long) starts[i] << 32) | (ends[i] & 0xffffffffL);
+            }
+            Arrays.sort(keys);
+
+            size = 0;
+            sorted = true;
+            for (long key : keys){
+                add((int) (key >>> 32), (int) key);
+            }
+        }
+    }
+
+    private VariantIndex(){
+    }
+
+    /**
+     * Shared index for a VCF; built on first use and rebuilt if the VCF changes. Each maximum indel length has its own
+     * file.
+     */
+    public static VariantIndex getIndex(File vcfFilePath, int maxIndelLength) throws IOException {
+        synchronized (indexes){
+
+            String key = IndexFiles.getKey(vcfFilePath, maxIndelLength);
+            VariantIndex index = indexes.get(key);
+
+            if (index == null){
+
+                File indexFilePath = new File(vcfFilePath + ".i" + maxIndelLength + ".variants");
+
+                if (!IndexFiles.isCurrent(indexFilePath, MAGIC, VERSION, vcfFilePath, maxIndelLength)){
+                    build(vcfFilePath, indexFilePath, maxIndelLength);
+                }
+
+                index = map(indexFilePath);
+                indexes.put(key, index);
+            }
+
+            return index;
+        }
+    }
+
+    public static void build(File vcfFilePath, File indexFilePath, int maxIndelLength) throws IOException {
+
+        long variants = 0, position = IndexFiles.getHeaderLength(1);
+        LinkedHashMap<String, long[]> table = new LinkedHashMap<>(); //spans, checkpoints, section offset and length
+        File temporaryFilePath = IndexFiles.getTemporaryFile(indexFilePath);
+
+        log.log(Level.INFO, "Building variant index " + indexFilePath + " from " + (vcfFilePath.length() >> 20) + " MB of VCF; this is done once " +
+                "but reads the whole file, which takes a long time for dbSNP, so build it ahead with the index command");
+
+        try (VCFFileReader vcfFile = new VCFFileReader(vcfFilePath, false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFilePath)))){
+
+            IndexFiles.writeHeader(out, MAGIC, VERSION, vcfFilePath, maxIndelLength);
+
+            String contig = null;
+            SpanList list = null;
+
+            for (VariantContext poly : vcfFile){
+
+                int start, end;
+
+                if (poly.isSNP()){
+                    start = poly.getStart();
+                    end = poly.getEnd();
+                } else if (poly.isIndel() && poly.getEnd() - poly.getStart() <= maxIndelLength){
+                    start = poly.getStart() + 1; //skip padding base
+                    end = poly.getEnd();
+                } else {
+                    continue;
+                }
+
+                //insertions do not cover any reference base
+                if (end < start) continue;
+
+                //write each contig once its variants are read so only one is held in memory
+                if (!poly.getContig().equals(contig)){
+
+                    if (list != null){
+                        position += writeContig(out, contig, list, position, table);
+                    }
+
+                    if (table.containsKey(poly.getContig())){
+                        throw new IOException("VCF is not grouped by contig; " + poly.getContig() + " appears again after other contigs");
+                    }
+
+                    contig = poly.getContig();
+                    list = new SpanList();
+                }
+
+                list.add(start, end);
+                variants++;
+            }
+
+            if (list != null){
+                position += writeContig(out, contig, list, position, table);
+            }
+
+            //contig table then its offset
+            out.writeInt(table.size());
+            for (Map.Entry<String, long[]> entry : table.entrySet()){
+                out.writeUTF(entry.getKey());
+                out.writeInt((int) entry.getValue()[0]);
+                out.writeInt((int) entry.getValue()[1]);
+                out.writeLong(entry.getValue()[2]);
+                out.writeInt((int) entry.getValue()[3]);
+            }
+            out.writeLong(position);
+
+            out.close();
+
+        } catch (IOException | RuntimeException e){
+            temporaryFilePath.delete();
+            throw e;
+        }
+
+        IndexFiles.replace(temporaryFilePath, indexFilePath);
+
+        log.log(Level.INFO, "Indexed " + variants + " variant(s) on " + table.size() + " contig(s)");
+    }
+
+    /**
+     * Writes a contig section: a checkpoint of first start, decoder state and byte offset every 64 spans, then the
+     * spans as delta-encoded varints
+     *
+     * @return bytes written
+     */
+    private static long writeContig(DataOutputStream out, String contig, SpanList list, long position, HashMap<String, long[]> table) throws IOException {
+
+        list.coalesce();
+
+        int numberOfCheckpoints = (list.size + checkpointInterval - 1) / checkpointInterval, previousEnd = 0;
+        long encodedLength = 0;
+
+        for (int i = 0; i < list.size; ++i){
+
+            if (i % checkpointInterval == 0){
+                out.writeInt(list.starts[i]);
+                out.writeInt(previousEnd);
+                out.writeInt((int) encodedLength);
+            }
+
+            encodedLength += getVarintLength(list.starts[i] - previousEnd) + getVarintLength(list.ends[i] - list.starts[i]);
+            previousEnd = list.ends[i];
+        }
+
+        long length = numberOfCheckpoints * 12L + encodedLength;
+
+        //each section is mapped on its own
+        if (length > Integer.MAX_VALUE){
+            throw new IOException("Variants on " + contig + " are too many to map");
+        }
+
+        previousEnd = 0;
+        for (int i = 0; i < list.size; ++i){
+            writeVarint(out, list.starts[i] - previousEnd);
+            writeVarint(out, list.ends[i] - list.starts[i]);
+            previousEnd = list.ends[i];
+        }
+
+        table.put(contig, new long[]{list.size, numberOfCheckpoints, position, length});
+
+        return length;
+    }
+
+    private static VariantIndex map(File indexFilePath) throws IOException {
+
+        VariantIndex index = new VariantIndex();
+
+        try (FileChannel channel = FileChannel.open(indexFilePath.toPath(), StandardOpenOption.READ)){
+
+            //contig table offset is the last eight bytes
+            ByteBuffer tableOffset = ByteBuffer.allocate(8);
+            channel.read(tableOffset, channel.size() - 8);
+            tableOffset.flip();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(tableOffset.getLong()))));
+
+            int numberOfContigs = in.readInt();
+
+            for (int n = 0; n < numberOfContigs; ++n){
+                String name = in.readUTF();
+                Contig contig = new Contig();
+                contig.numberOfSpans = in.readInt();
+                contig.numberOfCheckpoints = in.readInt();
+                long sectionOffset = in.readLong();
+                contig.buffer = channel.map(FileChannel.MapMode.READ_ONLY, sectionOffset, in.readInt());
+                contig.dataOffset = contig.numberOfCheckpoints * 12;
+                index.contigs.put(name, contig);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Coalesced excluded spans overlapping 1-based inclusive coordinates, clipped to the query
+     *
+     * @return alternating start and end positions
+     */
+    public int[] query(String contigName, int start, int end){
+
+        Contig contig = contigs.get(contigName);
+        int[] result = new int[16];
+        int size = 0;
+
+        if (contig == null || contig.numberOfSpans == 0){
+            return new int[0];
+        }
+
+        //last checkpoint starting at or before the query
+        int low = 0, high = contig.numberOfCheckpoints - 1, checkpoint = 0;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            if (contig.buffer.getInt(mid * 12) <= start){
+                checkpoint = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int previousEnd = contig.buffer.getInt(checkpoint * 12 + 4);
+        int[] position = {contig.dataOffset + contig.buffer.getInt(checkpoint * 12 + 8)};
+
+        for (int i = checkpoint * checkpointInterval; i < contig.numberOfSpans; ++i){
+
+            int spanStart = previousEnd + readVarint(contig.buffer, position);
+            int spanEnd = spanStart + readVarint(contig.buffer, position);
+            previousEnd = spanEnd;
+
+            if (spanStart > end) break;
+            if (spanEnd < start) continue;
+
+            if (size + 2 > result.length) result = Arrays.copyOf(result, result.length * 2);
+            result[size++] = Math.max(spanStart, start);
+            result[size++] = Math.min(spanEnd, end);
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int getVarintLength(int value){
+        int length = 1;
+        while ((value & ~0x7F) != 0){
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer, int[] position){
+        int value = 0, shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+}
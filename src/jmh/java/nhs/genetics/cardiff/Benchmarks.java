@@ -0,0 +1,386 @@
+package nhs.genetics.cardiff;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+/**
+ * JMH benchmarks for the Java-side hot paths on generated inputs, so neither primer3 nor blastn is needed. Run with
+ * gradle jmh, which adds the gc profiler for bytes allocated per operation, or from the benchmark jar with
+ * java -jar build/libs/PrimerDesigner-1.0.6-jmh.jar -prof gc
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Benchmarks {
+
+    private static final String bases = "ACGT";
+    private static final int contigLength = 2000000, padding = 350, candidates = 50;
+
+    /**
+     * Generated reference, variants and configuration shared by every benchmark
+     */
+    @State(Scope.Benchmark)
+    public static class Genome {
+
+        final Random random = new Random(42);
+        File workDir, fastaFilePath, vcfFilePath;
+        Configuration configuration;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Trial)
+        public void setup() throws IOException {
+
+            LogManager.getLogManager().reset();
+
+            workDir = Files.createTempDirectory("primerdesigner-benchmarks").toFile();
+            writeFasta();
+            writeVcf();
+
+            configuration = getConfiguration("benchmarks");
+        }
+
+        /**
+         * @param settings extra configuration lines
+         */
+        Configuration getConfiguration(String name, String... settings) throws IOException {
+
+            File configurationFilePath = new File(workDir, name + ".cfg");
+            try (PrintWriter writer = new PrintWriter(configurationFilePath)){
+                writer.println("blastnRefPath=" + new File(workDir, "db"));
+                writer.println("blastnFilePath=" + new File(workDir, "blastn"));
+                writer.println("referenceGenomeFasta=" + fastaFilePath);
+                writer.println("primer3Settings=" + new File(workDir, "primer3.settings"));
+                for (String setting : settings){
+                    writer.println(setting);
+                }
+            }
+
+            Configuration configuration = new Configuration(configurationFilePath);
+            configuration.parseConfigurationFile();
+
+            return configuration;
+        }
+
+        @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+        public void tearDown(){
+            for (File file : workDir.listFiles()){
+                file.delete();
+            }
+            workDir.delete();
+        }
+
+        /**
+         * Two contigs of random sequence with occasional N runs, plus a samtools faidx index
+         */
+        private void writeFasta() throws IOException {
+
+            fastaFilePath = new File(workDir, "reference.fa");
+            int lineLength = 60;
+
+            try (PrintWriter fasta = new PrintWriter(new BufferedWriter(new FileWriter(fastaFilePath)));
+                 PrintWriter index = new PrintWriter(new FileWriter(fastaFilePath + ".fai"))){
+
+                long offset = 0;
+
+                for (String contig : new String[]{"chr1", "chr2"}){
+
+                    String header = ">" + contig + "\n";
+                    fasta.print(header);
+                    offset += header.length();
+
+                    index.println(contig + "\t" + contigLength + "\t" + offset + "\t" + lineLength + "\t" + (lineLength + 1));
+
+                    StringBuilder line = new StringBuilder();
+                    for (int n = 0; n < contigLength; ++n){
+
+                        line.append(random.nextInt(10000) == 0 ? 'N' : bases.charAt(random.nextInt(4)));
+
+                        if (line.length() == lineLength || n == contigLength - 1){
+                            fasta.print(line);
+                            fasta.print('\n');
+                            offset += line.length() + 1;
+                            line.setLength(0);
+                        }
+                    }
+                }
+
+            }
+        }
+
+        /**
+         * SNPs and short indels about every 100bp on both contigs
+         */
+        private void writeVcf() throws IOException {
+
+            vcfFilePath = new File(workDir, "variants.vcf");
+
+            try (PrintWriter vcf = new PrintWriter(new BufferedWriter(new FileWriter(vcfFilePath)))){
+
+                vcf.println("##fileformat=VCFv4.2");
+                vcf.println("##contig=<ID=chr1,length=" + contigLength + ">");
+                vcf.println("##contig=<ID=chr2,length=" + contigLength + ">");
+                vcf.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+
+                for (String contig : new String[]{"chr1", "chr2"}){
+                    for (int pos = 1 + random.nextInt(100); pos < contigLength - 20; pos += 1 + random.nextInt(200)){
+
+                        String ref, alt;
+
+                        switch (random.nextInt(10)){
+                            case 0: ref = getRandomSequence(random, 2 + random.nextInt(7)); alt = ref.substring(0, 1); break; //deletion
+                            case 1: ref = getRandomSequence(random, 1); alt = ref + getRandomSequence(random, 1 + random.nextInt(8)); break; //insertion
+                            default: ref = getRandomSequence(random, 1); alt = ref.equals("A") ? "G" : "A"; break;
+                        }
+
+                        vcf.println(contig + "\t" + pos + "\t.\t" + ref + "\t" + alt + "\t.\tPASS\t.");
+                    }
+                }
+
+            }
+        }
+
+        GenomicLocation getRandomTarget(){
+            int start = padding + 1 + random.nextInt(contigLength - 2 * padding - 200);
+            return new GenomicLocation(random.nextBoolean() ? "chr1" : "chr2", start, start + random.nextInt(200));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Primer3Output {
+
+        @Param({"5", "50", "500"})
+        int pairs;
+
+        String record;
+
+        /**
+         * Primer3 Boulder-IO output with the given number of pairs, as returned with -echo_settings_file
+         */
+        @Setup(org.openjdk.jmh.annotations.Level.Trial)
+        public void setup(){
+
+            Random random = new Random(42);
+            StringBuilder record = new StringBuilder();
+
+            record.append("SEQUENCE_TEMPLATE=").append(getRandomSequence(random, 2 * padding + 100)).append("\n");
+            record.append("PRIMER_LEFT_EXPLAIN=considered 5000, GC content failed 500, low tm 1200, high tm 900, ok 2400\n");
+            record.append("PRIMER_RIGHT_EXPLAIN=considered 5000, GC content failed 480, low tm 1100, high tm 1000, ok 2420\n");
+            record.append("PRIMER_PAIR_EXPLAIN=considered ").append(pairs * 10).append(", ok ").append(pairs).append("\n");
+            record.append("PRIMER_LEFT_NUM_RETURNED=").append(pairs).append("\n");
+            record.append("PRIMER_RIGHT_NUM_RETURNED=").append(pairs).append("\n");
+            record.append("PRIMER_PAIR_NUM_RETURNED=").append(pairs).append("\n");
+
+            for (int n = 0; n < pairs; ++n){
+                record.append("PRIMER_PAIR_").append(n).append("_PENALTY=").append(random.nextDouble() * 5).append("\n");
+                for (String side : new String[]{"LEFT", "RIGHT"}){
+                    String key = "PRIMER_" + side + "_" + n;
+                    record.append(key).append("_PENALTY=").append(random.nextDouble() * 2).append("\n");
+                    record.append(key).append("_SEQUENCE=").append(getRandomSequence(random, 20)).append("\n");
+                    record.append(key).append("=").append(1 + random.nextInt(padding)).append(",20\n");
+                    record.append(key).append("_TM=").append(58 + random.nextDouble() * 4).append("\n");
+                    record.append(key).append("_GC_PERCENT=").append(40 + random.nextDouble() * 20).append("\n");
+                    record.append(key).append("_SELF_ANY_TH=").append(random.nextDouble() * 30).append("\n");
+                    record.append(key).append("_SELF_END_TH=").append(random.nextDouble() * 10).append("\n");
+                    record.append(key).append("_HAIRPIN_TH=").append(random.nextDouble() * 40).append("\n");
+                    record.append(key).append("_END_STABILITY=").append(3 + random.nextDouble() * 2).append("\n");
+                }
+                record.append("PRIMER_PAIR_").append(n).append("_COMPL_ANY_TH=").append(random.nextDouble() * 20).append("\n");
+                record.append("PRIMER_PAIR_").append(n).append("_COMPL_END_TH=").append(random.nextDouble() * 10).append("\n");
+                record.append("PRIMER_PAIR_").append(n).append("_PRODUCT_SIZE=").append(250 + random.nextInt(200)).append("\n");
+            }
+
+            record.append("=\n");
+
+            this.record = record.toString();
+        }
+    }
+
+    /**
+     * Candidate pairs whose primers each have the given number of alignments; served from the alignment cache so blastn
+     * is never launched. The pairs are recorded as Primer3 Boulder-IO output, which a stand-in primer3_core prints so
+     * they reach {@link Primer3} through the same parse path as a real design.
+     */
+    @State(Scope.Benchmark)
+    public static class Alignments {
+
+        @Param({"10", "100", "1000"})
+        int hits;
+
+        GenomicLocation target;
+        ReferenceSequence referenceSequence;
+        Configuration configuration;
+        AlignmentCache alignmentCache;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Trial)
+        public void setup(Genome genome) throws IOException {
+
+            Random random = genome.random;
+            StringBuilder record = new StringBuilder();
+
+            target = new GenomicLocation("chr1", contigLength / 2, contigLength / 2 + 100);
+            int sequenceStart = target.getStartPosition() - padding;
+
+            referenceSequence = new ReferenceSequence(target, genome.fastaFilePath, new File(genome.fastaFilePath + ".fai"), padding);
+            referenceSequence.populateReferenceSequence();
+
+            //prints the recorded candidates whatever the input
+            File recordFilePath = new File(genome.workDir, "candidates" + hits + ".txt"), primer3FilePath = new File(genome.workDir, "primer3_core" + hits);
+            try (PrintWriter writer = new PrintWriter(primer3FilePath)){
+                writer.println("#!/bin/sh");
+                writer.println("cat > /dev/null");
+                writer.println("cat '" + recordFilePath + "'");
+            }
+            primer3FilePath.setExecutable(true);
+
+            configuration = genome.getConfiguration("alignments" + hits, "primer3FilePath=" + primer3FilePath);
+
+            alignmentCache = new AlignmentCache(new File(genome.workDir, "alignments" + hits + ".cache"), configuration.getBlastnRefPath(), configuration.getMaxExactMatches(), configuration.getMinSimilarity());
+
+            for (int n = 0; n < candidates; ++n){
+
+                String left = getRandomSequence(random, 20), right = getRandomSequence(random, 20);
+                int leftOffset = 1 + random.nextInt(padding - 30), rightOffset = 2 * padding + 100 - random.nextInt(padding - 30);
+
+                record.append("PRIMER_LEFT_").append(n).append("_SEQUENCE=").append(left).append("\n");
+                record.append("PRIMER_RIGHT_").append(n).append("_SEQUENCE=").append(right).append("\n");
+                record.append("PRIMER_LEFT_").append(n).append("=").append(leftOffset).append(",20\n");
+                record.append("PRIMER_RIGHT_").append(n).append("=").append(rightOffset).append(",20\n");
+
+                //designed site plus off-target hits scattered over both contigs
+                ArrayList<GenomicLocation> leftAlignments = new ArrayList<>(), rightAlignments = new ArrayList<>();
+                leftAlignments.add(new GenomicLocation("chr1", leftOffset + sequenceStart - 1, leftOffset + sequenceStart + 18));
+                rightAlignments.add(new GenomicLocation("chr1", rightOffset + sequenceStart - 1, rightOffset + sequenceStart - 20));
+
+                for (int h = 1; h < hits; ++h){
+                    leftAlignments.add(getRandomAlignment(random, random.nextBoolean()));
+                    rightAlignments.add(getRandomAlignment(random, random.nextBoolean()));
+                }
+
+                alignmentCache.put(new AlignmentResult(left, leftAlignments, 1, configuration.getMaxExactMatches()));
+                alignmentCache.put(new AlignmentResult(right, rightAlignments, 1, configuration.getMaxExactMatches()));
+            }
+
+            record.append("=\n");
+
+            try (PrintWriter writer = new PrintWriter(recordFilePath)){
+                writer.print(record);
+            }
+        }
+
+        @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+        public void tearDown() throws IOException {
+            alignmentCache.close();
+        }
+    }
+
+    /**
+     * Fresh design with the candidates parsed; set up per invocation as checking consumes them
+     */
+    @State(Scope.Thread)
+    public static class Candidates {
+
+        Primer3 primer3;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Invocation)
+        public void setup(Alignments alignments){
+            primer3 = new Primer3(alignments.referenceSequence, alignments.target, alignments.configuration);
+            primer3.setAlignmentCache(alignments.alignmentCache);
+            primer3.callPrimer3();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Resources {
+
+        VariantIndex variantIndex;
+        ReferenceCache referenceCache;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Trial)
+        public void setup(Genome genome) throws IOException {
+            variantIndex = VariantIndex.getIndex(genome.vcfFilePath, genome.configuration.getMaxIndelLength());
+            referenceCache = new ReferenceCache(MappedFastaReader.getReader(genome.fastaFilePath, new File(genome.fastaFilePath + ".fai")), genome.configuration.getReferenceCacheBytes());
+        }
+    }
+
+    /**
+     * M13-tailed primers
+     */
+    @State(Scope.Benchmark)
+    public static class TailedPrimers {
+
+        Thermodynamics thermodynamics;
+        String left, right;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Trial)
+        public void setup(Genome genome){
+            thermodynamics = Thermodynamics.getThermodynamics(genome.configuration);
+            left = "TGTAAAACGACGGCCAGT" + getRandomSequence(genome.random, 20);
+            right = "CAGGAAACAGCTATGACC" + getRandomSequence(genome.random, 20);
+        }
+    }
+
+    @Benchmark
+    public ArrayList<PrimerPair> parseRecord(Primer3Output output) throws IOException {
+        return new Primer3OutputParser(new StringReader(output.record)).parseRecord();
+    }
+
+    @Benchmark
+    public ArrayList<PrimerPair> checkPrimerAlignments(Candidates candidates){
+        candidates.primer3.checkPrimerAlignments();
+        return candidates.primer3.getFilteredPrimerPairs();
+    }
+
+    @Benchmark
+    public Primer3 setExcludedRegions(Genome genome, Resources resources){
+        Primer3 primer3 = new Primer3(null, genome.getRandomTarget(), genome.configuration);
+        primer3.setExcludedRegions(resources.variantIndex);
+        return primer3;
+    }
+
+    @Benchmark
+    public String populateReferenceSequence(Genome genome, Resources resources){
+        ReferenceSequence referenceSequence = new ReferenceSequence(genome.getRandomTarget(), resources.referenceCache, padding);
+        referenceSequence.populateReferenceSequence();
+        return referenceSequence.getReferenceSequence();
+    }
+
+    @Benchmark
+    public double getTm(TailedPrimers primers){
+        return primers.thermodynamics.getTm(primers.left);
+    }
+
+    @Benchmark
+    public double getHairpinTm(TailedPrimers primers){
+        return primers.thermodynamics.getHairpinTm(primers.left);
+    }
+
+    @Benchmark
+    public double getDimerTm(TailedPrimers primers){
+        return primers.thermodynamics.getDimerTm(primers.left, primers.right, true);
+    }
+
+    private static GenomicLocation getRandomAlignment(Random random, boolean forward){
+        int start = 1 + random.nextInt(contigLength - 20);
+        return new GenomicLocation(random.nextBoolean() ? "chr1" : "chr2", forward ? start : start + 19, forward ? start + 19 : start);
+    }
+
+    private static String getRandomSequence(Random random, int length){
+        StringBuilder sequence = new StringBuilder(length);
+        for (int n = 0; n < length; ++n){
+            sequence.append(bases.charAt(random.nextInt(4)));
+        }
+        return sequence.toString();
+    }
+
+}